@@ -10,9 +10,10 @@ import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.lang.reflect.Constructor;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.swing.SwingUtilities;
 
@@ -78,7 +79,10 @@ public abstract class Task implements Runnable
      */
     protected int exitStatus = EXIT_RUNNING;
 
-    protected List<TaskListener> listeners = new ArrayList<TaskListener>();
+    /**
+     * Listeners may be added and removed while the Task is running on another thread, see {@link TaskExecutor}.
+     */
+    protected List<TaskListener> listeners = new CopyOnWriteArrayList<TaskListener>();
 
     /**
      * Some tasks have duel roles, as a command line task, which outputs text, and as a small cog in a larger
@@ -591,7 +595,7 @@ public abstract class Task implements Runnable
         // Default does nothing
     }
 
-    private boolean running = false;
+    private volatile boolean running = false;
 
     public boolean isRunning()
     {
@@ -626,6 +630,19 @@ public abstract class Task implements Runnable
         }
     }
 
+    /**
+     * Runs this Task on the default {@link TaskExecutor}, rather than on the calling thread.
+     * 
+     * @return A future, which completes when the Task ends. Cancelling the future will
+     *         {@link uk.co.nickthecoder.jguifier.util.Stoppable#stop()} the Task, if it is Stoppable.
+     * @see TaskExecutor#submit(Task)
+     * @priority 3
+     */
+    public CompletableFuture<Task> runAsync()
+    {
+        return TaskExecutor.getDefault().submit(this);
+    }
+
     /**
      * Actions performed before {@link #body()}
      */
@@ -666,6 +683,22 @@ public abstract class Task implements Runnable
         }
     }
 
+    /**
+     * Tells the {@link TaskListener}s how much of the Task has been done. Call this from {@link #body()}.
+     * 
+     * @param fraction
+     *            Between 0 and 1, or a negative number if the amount of work is unknown.
+     * @param message
+     *            A description of what the task is currently doing, or null.
+     * @priority 3
+     */
+    public void fireProgress(double fraction, String message)
+    {
+        for (TaskListener listener : listeners) {
+            listener.progress(this, fraction, message);
+        }
+    }
+
     public void addTaskListener(TaskListener listener)
     {
         listeners.add(listener);
@@ -0,0 +1,252 @@
+package uk.co.nickthecoder.jguifier;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import uk.co.nickthecoder.jguifier.util.Stoppable;
+
+/**
+ * Runs {@link Task}s on a pool of background threads, rather than on the calling thread (which for
+ * {@link TaskPrompter} is the Swing EDT, so the GUI would freeze until the Task ended).
+ *
+ * <pre>
+ * <code>
+ * CompletableFuture&lt;Task&gt; future = new TaskExecutor(2).submit(task);
+ * ...
+ * future.cancel(true);
+ * </code>
+ * </pre>
+ *
+ * Progress is reported via {@link TaskListener#progress(Task, double, String)}, which is called on the pool's
+ * thread, so GUI listeners should use {@link javax.swing.SwingUtilities#invokeLater(Runnable)}.
+ * <p>
+ * Cancellation is cooperative : cancelling the future calls {@link Stoppable#stop()} if the Task is Stoppable (and
+ * interrupts the thread if asked to). A Task which is cancelled before it starts is never run, and its listeners
+ * are told via {@link TaskListener#aborted(Task)}. Note, the future completes as soon as it is cancelled, but a
+ * Task which had already started may carry on running until it notices that it has been stopped (or to the end, if
+ * it isn't Stoppable).
+ * </p>
+ * <p>
+ * The threads are NOT daemon threads, so a Task started from a TaskPrompter still completes after the last window is
+ * closed. Idle threads end after {@link #KEEP_ALIVE_MILLIS}, so they don't stop the JVM from exiting.
+ * </p>
+ *
+ * @priority 4
+ */
+public class TaskExecutor
+{
+    /**
+     * How long idle threads are kept, waiting for more Tasks.
+     */
+    public static final long KEEP_ALIVE_MILLIS = 1000;
+
+    private static TaskExecutor _default;
+
+    private final ThreadPoolExecutor _executor;
+
+    /**
+     * @return An executor shared by {@link Task#runAsync()} and {@link TaskPrompter}, with one thread per processor.
+     */
+    public static synchronized TaskExecutor getDefault()
+    {
+        if (_default == null) {
+            _default = new TaskExecutor(Runtime.getRuntime().availableProcessors());
+        }
+        return _default;
+    }
+
+    /**
+     * @param threads
+     *            The maximum number of Tasks to run at the same time. Others wait in a queue.
+     */
+    public TaskExecutor(int threads)
+    {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be at least 1");
+        }
+        _executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), new TaskThreadFactory());
+        _executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues the task to be run.
+     *
+     * @param task
+     * @return A future which completes with the task itself when it ends, or exceptionally if it throws.
+     * @priority 3
+     */
+    public CompletableFuture<Task> submit(final Task task)
+    {
+        return submitTask(task);
+    }
+
+    /**
+     * The same as {@link #submit(Task)}, but the result also has {@link TaskFuture#ended()}, for callers (such as
+     * {@link TaskScheduler}) which need to know when a cancelled Task has really ended.
+     */
+    TaskFuture submitTask(final Task task)
+    {
+        final TaskFuture future = new TaskFuture(task);
+        _executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (!future.begin()) {
+                    return;
+                }
+                Throwable failure = null;
+                try {
+                    task.run();
+                    if (future.finish()) {
+                        future.complete(task);
+                    }
+                } catch (Throwable e) {
+                    failure = e;
+                    if (future.finish()) {
+                        future.completeExceptionally(e);
+                    }
+                } finally {
+                    future.end(failure);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Prevents more Tasks from being submitted. Tasks which are already queued or running are left to end normally.
+     */
+    public void shutdown()
+    {
+        _executor.shutdown();
+    }
+
+    /**
+     * @return The executor which runs the Tasks, for use with other CompletableFuture methods, such as
+     *         {@link CompletableFuture#thenRunAsync(Runnable, java.util.concurrent.Executor)}
+     */
+    public ExecutorService getExecutorService()
+    {
+        return _executor;
+    }
+
+    static class TaskFuture extends CompletableFuture<Task>
+    {
+        private final Task _task;
+
+        private final CompletableFuture<Task> _ended = new CompletableFuture<Task>();
+
+        private Thread _thread;
+
+        private boolean _started;
+
+        private boolean _cancelled;
+
+        private boolean _finished;
+
+        TaskFuture(Task task)
+        {
+            _task = task;
+        }
+
+        /**
+         * @return false if the future was cancelled before the task started.
+         */
+        synchronized boolean begin()
+        {
+            if (_cancelled || isDone()) {
+                return false;
+            }
+            _started = true;
+            _thread = Thread.currentThread();
+            return true;
+        }
+
+        /**
+         * Called when the task has ended, before completing the future, so that a late call to cancel can't
+         * succeed after the task has finished.
+         * 
+         * @return false if the future was cancelled first.
+         */
+        synchronized boolean finish()
+        {
+            if (_cancelled) {
+                return false;
+            }
+            _finished = true;
+            return true;
+        }
+
+        void end(Throwable failure)
+        {
+            synchronized (this) {
+                _thread = null;
+                // Don't let a late interrupt leak into the next Task run by this thread.
+                Thread.interrupted();
+            }
+            // Outside of the lock, because this runs the dependent actions.
+            if (failure == null) {
+                _ended.complete(_task);
+            } else {
+                _ended.completeExceptionally(failure);
+            }
+        }
+
+        /**
+         * @return A future which completes when the Task has really ended, rather than when it was cancelled, or
+         *         with a CancellationException if it was cancelled before it started.
+         */
+        CompletableFuture<Task> ended()
+        {
+            return _ended;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            boolean started;
+            synchronized (this) {
+                if (_cancelled || _finished || isDone()) {
+                    return false;
+                }
+                _cancelled = true;
+                started = _started;
+                if (mayInterruptIfRunning && (_thread != null)) {
+                    _thread.interrupt();
+                }
+            }
+            // Outside of the lock, because this runs the future's dependent actions.
+            if (!super.cancel(mayInterruptIfRunning)) {
+                return false;
+            }
+            if (started) {
+                if (_task instanceof Stoppable) {
+                    ((Stoppable) _task).stop();
+                }
+            } else {
+                _ended.completeExceptionally(new CancellationException());
+                _task.fireAborted();
+            }
+            return true;
+        }
+    }
+
+    private static class TaskThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger _count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            return new Thread(runnable, "task-" + _count.incrementAndGet());
+        }
+    }
+}
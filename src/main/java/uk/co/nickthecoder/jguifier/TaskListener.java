@@ -7,4 +7,18 @@ public interface TaskListener
     public void ended(Task task, boolean normally);
 
     public void aborted(Task task);
+
+    /**
+     * Called by {@link Task#fireProgress(double, String)}, on the thread running the Task (which is not the Swing
+     * EDT when run by a {@link TaskExecutor}).
+     * 
+     * @param task
+     * @param fraction
+     *            Between 0 and 1, or a negative number if the amount of work is unknown.
+     * @param message
+     *            A description of what the task is currently doing, or null.
+     */
+    public default void progress(Task task, double fraction, String message)
+    {
+    }
 }
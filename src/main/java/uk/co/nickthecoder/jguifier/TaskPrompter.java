@@ -12,6 +12,10 @@ import java.awt.datatransfer.StringSelection;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
 
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
@@ -21,8 +25,10 @@ import javax.swing.JDialog;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JTextField;
 import javax.swing.ScrollPaneConstants;
+import javax.swing.SwingUtilities;
 import javax.swing.WindowConstants;
 import javax.swing.border.EmptyBorder;
 
@@ -55,6 +61,36 @@ public class TaskPrompter
 
     private JTextField _commandLabel;
 
+    private JButton _okButton;
+
+    private JButton _applyButton;
+
+    /**
+     * Shown while the task is running after pressing "Apply".
+     */
+    private JProgressBar _progressBar;
+
+    /**
+     * The run started by "Apply", so that it can be cancelled if the dialog box is cancelled.
+     */
+    private CompletableFuture<Task> _future;
+
+    private TaskListener _progressListener = new TaskAdaptor()
+    {
+        @Override
+        public void progress(Task task, final double fraction, final String message)
+        {
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    updateProgress(fraction, message);
+                }
+            });
+        }
+    };
+
     public TaskPrompter(Task task)
     {
         super(null, task.getTitle(), ModalityType.MODELESS);
@@ -213,12 +249,12 @@ public class TaskPrompter
 
         // Apply Button
         if (getTask().getCanApply()) {
-            JButton applyButton = new JButton("Apply");
-            Dimension buttonSize = new Dimension(100, applyButton.getPreferredSize().height);
-            applyButton.setPreferredSize(buttonSize);
-            getRootPane().setDefaultButton(applyButton);
-            rightButtonsPanel.add(applyButton);
-            applyButton.addActionListener(new ActionListener()
+            _applyButton = new JButton("Apply");
+            Dimension buttonSize = new Dimension(100, _applyButton.getPreferredSize().height);
+            _applyButton.setPreferredSize(buttonSize);
+            getRootPane().setDefaultButton(_applyButton);
+            rightButtonsPanel.add(_applyButton);
+            _applyButton.addActionListener(new ActionListener()
             {
                 @Override
                 public void actionPerformed(ActionEvent event)
@@ -227,16 +263,21 @@ public class TaskPrompter
                 }
             });
 
+            _progressBar = new JProgressBar(0, 1000);
+            _progressBar.setStringPainted(true);
+            _progressBar.setVisible(false);
+            leftButtonsPanel.add(_progressBar);
+            getTask().addTaskListener(_progressListener);
         }
 
         // Ok Button
-        JButton okButton = new JButton("OK");
-        Dimension buttonSize = new Dimension(100, okButton.getPreferredSize().height);
-        okButton.setPreferredSize(buttonSize);
-        getRootPane().setDefaultButton(okButton);
-        okButton.setActionCommand("OK");
-        rightButtonsPanel.add(okButton);
-        okButton.addActionListener(new ActionListener()
+        _okButton = new JButton("OK");
+        Dimension buttonSize = new Dimension(100, _okButton.getPreferredSize().height);
+        _okButton.setPreferredSize(buttonSize);
+        getRootPane().setDefaultButton(_okButton);
+        _okButton.setActionCommand("OK");
+        rightButtonsPanel.add(_okButton);
+        _okButton.addActionListener(new ActionListener()
         {
             @Override
             public void actionPerformed(ActionEvent event)
@@ -319,24 +360,120 @@ public class TaskPrompter
         }
 
         dispose();
-        getTask().run();
+        getTask().runAsync().whenComplete(new BiConsumer<Task, Throwable>()
+        {
+            @Override
+            public void accept(Task task, Throwable e)
+            {
+                if (e != null) {
+                    reportFailure(null, e);
+                }
+            }
+        });
     }
 
     /**
-     * Runs the task without closing the dialog box
+     * Runs the task without closing the dialog box. The task is run by {@link TaskExecutor}, so the dialog box
+     * remains responsive, but the OK and Apply buttons are disabled until the task ends.
      */
     public void onApply()
     {
-        if (!_parametersPanel.check(getTask())) {
+        if (getTask().isRunning() || !_parametersPanel.check(getTask())) {
+            return;
+        }
+        setRunning(true);
+        _future = getTask().runAsync();
+        _future.whenComplete(new BiConsumer<Task, Throwable>()
+        {
+            @Override
+            public void accept(Task task, Throwable e)
+            {
+                if (e != null) {
+                    reportFailure(TaskPrompter.this, e);
+                }
+                SwingUtilities.invokeLater(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        setRunning(false);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Tells the user that the task failed (on the EDT), as the exception no longer propagates to the caller now
+     * that the task is run by a {@link TaskExecutor}. Cancelled runs aren't reported.
+     */
+    private static void reportFailure(final JDialog parent, Throwable e)
+    {
+        while (((e instanceof CompletionException) || (e.getClass() == RuntimeException.class))
+            && (e.getCause() != null)) {
+            e = e.getCause();
+        }
+        if (e instanceof CancellationException) {
+            return;
+        }
+        e.printStackTrace();
+
+        final Throwable cause = e;
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                JOptionPane.showMessageDialog(parent != null && parent.isDisplayable() ? parent : null,
+                    "Task Failed\n\n" + cause, "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+    }
+
+    private void setRunning(boolean running)
+    {
+        _okButton.setEnabled(!running);
+        if (_applyButton != null) {
+            _applyButton.setEnabled(!running);
+        }
+        if (_progressBar != null) {
+            _progressBar.setIndeterminate(true);
+            _progressBar.setString("");
+            _progressBar.setVisible(running);
+        }
+    }
+
+    private void updateProgress(double fraction, String message)
+    {
+        if ((_progressBar == null) || !_progressBar.isVisible()) {
             return;
         }
-        getTask().run();
+        _progressBar.setIndeterminate(fraction < 0);
+        if (fraction >= 0) {
+            _progressBar.setValue((int) (Math.min(fraction, 1) * _progressBar.getMaximum()));
+        }
+        _progressBar.setString(message == null ? "" : message);
+    }
+
+    @Override
+    public void dispose()
+    {
+        getTask().removeTaskListener(_progressListener);
+        super.dispose();
     }
 
+    /**
+     * Closes the dialog box. If the task is still running after pressing "Apply", then it is cancelled (see
+     * {@link TaskExecutor}), otherwise the listeners are told that the task was aborted.
+     */
     public void onCancel()
     {
         dispose();
-        getTask().fireAborted();
+        if ((_future != null) && !_future.isDone()) {
+            _future.cancel(true);
+        } else {
+            getTask().fireAborted();
+        }
     }
 
     @Override
@@ -0,0 +1,492 @@
+package uk.co.nickthecoder.jguifier;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import uk.co.nickthecoder.jguifier.parameter.ValueParameter;
+import uk.co.nickthecoder.jguifier.util.Stoppable;
+
+/**
+ * Runs a set of {@link Task}s, where some Tasks depend on others. A Task is started as soon as all of its
+ * dependencies have ended successfully, so independent Tasks run at the same time (on a {@link TaskExecutor} with a
+ * limited number of threads), and the total time is that of the longest chain of dependencies, rather than the sum
+ * of them all.
+ * <p>
+ * The results of one Task can be copied into the parameters of another, just before it is started, using
+ * {@link #link(Task, Supplier, Task, ValueParameter)}. For example, to list files, and then process them :
+ * </p>
+ *
+ * <pre>
+ * <code>
+ * TaskScheduler scheduler = new TaskScheduler().concurrency(4);
+ * scheduler.add(download);
+ * scheduler.link(lister, () -&gt; lister.results, transform, transform.files);
+ * scheduler.after(upload, transform, download);
+ * int exitStatus = scheduler.run();
+ * </code>
+ * </pre>
+ *
+ * The exit status of each Task follows the conventions of {@link TaskCommand} :
+ * <ul>
+ * <li>{@link TaskCommand#EXIT_TASK_FAILED} if the Task threw an exception.</li>
+ * <li>{@link TaskCommand#EXIT_BAD_PARAMETERS} if its parameters were invalid (after copying the linked values).</li>
+ * <li>{@link TaskCommand#EXIT_CANCELLED} if it wasn't run, because a dependency didn't succeed, or the scheduler
+ * was stopped, or if it was stopped while running, and then ended without throwing.</li>
+ * <li>The Task's own {@link Task#getExitStatus()} if it set one, and zero otherwise.</li>
+ * </ul>
+ * A non-zero exit status counts as a failure, and the Tasks which depend on it are not run. Other Tasks carry on,
+ * unless {@link #failFast()} is set.
+ *
+ * @priority 4
+ */
+public class TaskScheduler implements Stoppable
+{
+    private final Map<Task, Node> _nodes = new LinkedHashMap<Task, Node>();
+
+    private int _concurrency = Runtime.getRuntime().availableProcessors();
+
+    private boolean _failFast = false;
+
+    private boolean _stopped;
+
+    private int _remaining;
+
+    private CompletableFuture<Integer> _future;
+
+    public TaskScheduler()
+    {
+    }
+
+    /**
+     * Adds Tasks which don't depend on any other Task.
+     *
+     * @param tasks
+     * @return this
+     */
+    public TaskScheduler add(Task... tasks)
+    {
+        for (Task task : tasks) {
+            node(task);
+        }
+        return this;
+    }
+
+    /**
+     * Adds a Task, which will only run after all of the dependencies have ended successfully.
+     * The dependencies are also added, if they haven't been already.
+     *
+     * @param task
+     * @param dependencies
+     * @return this
+     */
+    public synchronized TaskScheduler after(Task task, Task... dependencies)
+    {
+        Node node = node(task);
+        for (Task dependency : dependencies) {
+            Node other = node(dependency);
+            if (!node.dependencies.contains(other)) {
+                node.dependencies.add(other);
+                other.dependents.add(node);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Copies a result of one Task into a parameter of another. <code>to</code> depends on <code>from</code>, and the
+     * value is copied after <code>from</code> ends, just before <code>to</code> is started.
+     *
+     * @param from
+     *            The Task producing the value
+     * @param output
+     *            Gets the value from <code>from</code>, such as <code>() -&gt; lister.results</code>
+     * @param to
+     *            The Task whose parameter is set
+     * @param parameter
+     *            One of <code>to</code>'s parameters
+     * @return this
+     */
+    public synchronized <T> TaskScheduler link(Task from, final Supplier<? extends T> output, Task to,
+        final ValueParameter<T> parameter)
+    {
+        after(to, from);
+        node(to).links.add(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                parameter.setValueIgnoreErrors(output.get());
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Copies the value of one Task's parameter to another Task's parameter.
+     *
+     * @see #link(Task, Supplier, Task, ValueParameter)
+     * @return this
+     */
+    public <T> TaskScheduler link(Task from, final ValueParameter<? extends T> output, Task to,
+        ValueParameter<T> parameter)
+    {
+        return link(from, new Supplier<T>()
+        {
+            @Override
+            public T get()
+            {
+                return output.getValue();
+            }
+        }, to, parameter);
+    }
+
+    /**
+     * @param value
+     *            The maximum number of Tasks to run at the same time. Defaults to the number of processors.
+     * @return this
+     */
+    public TaskScheduler concurrency(int value)
+    {
+        setConcurrency(value);
+        return this;
+    }
+
+    public void setConcurrency(int value)
+    {
+        if (value < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+        _concurrency = value;
+    }
+
+    public int getConcurrency()
+    {
+        return _concurrency;
+    }
+
+    /**
+     * Stop at the first failure. The running Tasks are stopped (see {@link TaskExecutor}), and no more are started.
+     * The scheduler still waits for the running Tasks to end.
+     *
+     * @return this
+     */
+    public TaskScheduler failFast()
+    {
+        _failFast = true;
+        return this;
+    }
+
+    public void setFailFast(boolean value)
+    {
+        _failFast = value;
+    }
+
+    public boolean getFailFast()
+    {
+        return _failFast;
+    }
+
+    public synchronized List<Task> getTasks()
+    {
+        return new ArrayList<Task>(_nodes.keySet());
+    }
+
+    /**
+     * Runs all of the Tasks, waiting for them to end. If the scheduler is stopped, this still waits for the Tasks
+     * which had started to end.
+     *
+     * @return The combined exit status (see {@link #getExitStatus()}).
+     * @throws TaskException
+     *             If the dependencies contain a cycle.
+     */
+    public int run()
+        throws TaskException
+    {
+        CompletableFuture<Integer> future = runAsync();
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            stop();
+            Thread.currentThread().interrupt();
+            return future.join();
+        } catch (Exception e) {
+            // The future is never completed exceptionally, but it can be cancelled.
+            return TaskCommand.EXIT_CANCELLED;
+        }
+    }
+
+    /**
+     * Starts the Tasks which have no dependencies, without waiting for them to end. Cancelling the future stops the
+     * scheduler.
+     *
+     * @return A future, completed with the combined exit status.
+     * @throws TaskException
+     *             If the dependencies contain a cycle.
+     */
+    public synchronized CompletableFuture<Integer> runAsync()
+        throws TaskException
+    {
+        checkForCycles();
+
+        _stopped = false;
+        _remaining = _nodes.size();
+        for (Node node : _nodes.values()) {
+            node.waiting = node.dependencies.size();
+            node.started = false;
+            node.future = null;
+            node.exitStatus = Task.EXIT_RUNNING;
+            node.exception = null;
+        }
+        _future = new CompletableFuture<Integer>()
+        {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning)
+            {
+                TaskScheduler.this.stop();
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        CompletableFuture<Integer> future = _future;
+
+        // Dependents are submitted as their dependencies end, so the executor isn't shut down. Its threads end once
+        // they are idle.
+        TaskExecutor executor = new TaskExecutor(_concurrency);
+        for (Node node : _nodes.values()) {
+            if ((node.waiting == 0) && !node.started) {
+                start(node, executor);
+            }
+        }
+        if (_remaining == 0) {
+            _future.complete(getExitStatus());
+        }
+        return future;
+    }
+
+    /**
+     * Stops the running Tasks, and prevents any more from being started. The Tasks which weren't run have the exit
+     * status {@link TaskCommand#EXIT_CANCELLED}. Stopping a Task only asks it to stop (see {@link Stoppable}), so
+     * the scheduler's future isn't completed until the running Tasks have actually ended.
+     */
+    @Override
+    public synchronized void stop()
+    {
+        _stopped = true;
+        for (Node node : new ArrayList<Node>(_nodes.values())) {
+            if (node.future != null) {
+                node.future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * @param task
+     * @return The exit status of the Task (see {@link TaskScheduler}), or {@link Task#EXIT_RUNNING} if it hasn't
+     *         ended yet.
+     */
+    public synchronized int getExitStatus(Task task)
+    {
+        Node node = _nodes.get(task);
+        return node == null ? Task.EXIT_RUNNING : node.exitStatus;
+    }
+
+    /**
+     * @param task
+     * @return The exception thrown by the Task, or null.
+     */
+    public synchronized Throwable getException(Task task)
+    {
+        Node node = _nodes.get(task);
+        return node == null ? null : node.exception;
+    }
+
+    /**
+     * Combines the exit statuses of all of the Tasks. This is zero if they all succeeded, otherwise the exit status
+     * of the first failed Task (in the order they were added), ignoring those which were cancelled, as these are a
+     * consequence of another Task failing. {@link TaskCommand#EXIT_CANCELLED} is only returned if the scheduler was
+     * stopped without any Task failing.
+     *
+     * @return The combined exit status, or {@link Task#EXIT_RUNNING} if any of the Tasks haven't ended.
+     */
+    public synchronized int getExitStatus()
+    {
+        int result = 0;
+        for (Node node : _nodes.values()) {
+            if (node.exitStatus == Task.EXIT_RUNNING) {
+                return Task.EXIT_RUNNING;
+            }
+            if (node.exitStatus == TaskCommand.EXIT_CANCELLED) {
+                if (result == 0) {
+                    result = TaskCommand.EXIT_CANCELLED;
+                }
+            } else if ((node.exitStatus != 0) && ((result == 0) || (result == TaskCommand.EXIT_CANCELLED))) {
+                result = node.exitStatus;
+            }
+        }
+        return result;
+    }
+
+    private synchronized Node node(Task task)
+    {
+        Node node = _nodes.get(task);
+        if (node == null) {
+            node = new Node(task);
+            _nodes.put(task, node);
+        }
+        return node;
+    }
+
+    /**
+     * Removes Tasks without dependencies, and then the Tasks which only depended on those, and so on. Any Tasks
+     * left over must be part of a cycle.
+     */
+    private void checkForCycles()
+        throws TaskException
+    {
+        Map<Node, Integer> waiting = new LinkedHashMap<Node, Integer>();
+        List<Node> ready = new ArrayList<Node>();
+        for (Node node : _nodes.values()) {
+            waiting.put(node, node.dependencies.size());
+            if (node.dependencies.isEmpty()) {
+                ready.add(node);
+            }
+        }
+        for (int i = 0; i < ready.size(); i++) {
+            for (Node dependent : ready.get(i).dependents) {
+                int count = waiting.get(dependent) - 1;
+                waiting.put(dependent, count);
+                if (count == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        if (ready.size() < _nodes.size()) {
+            for (Map.Entry<Node, Integer> entry : waiting.entrySet()) {
+                if (entry.getValue() > 0) {
+                    throw new TaskException("Cyclic dependency involving Task " + entry.getKey().task.getName());
+                }
+            }
+        }
+    }
+
+    private void start(final Node node, final TaskExecutor executor)
+    {
+        node.started = true;
+        if (_stopped) {
+            finished(node, TaskCommand.EXIT_CANCELLED, null, executor);
+            return;
+        }
+
+        try {
+            for (Runnable link : node.links) {
+                link.run();
+            }
+        } catch (Exception e) {
+            finished(node, TaskCommand.EXIT_TASK_FAILED, e, executor);
+            return;
+        }
+        if (!node.task.checkParameters()) {
+            finished(node, TaskCommand.EXIT_BAD_PARAMETERS, null, executor);
+            return;
+        }
+
+        TaskExecutor.TaskFuture future = executor.submitTask(node.task);
+        node.future = future;
+        // Not the future itself, which completes as soon as it is cancelled, while the Task may still be running.
+        future.ended().whenComplete(new BiConsumer<Task, Throwable>()
+        {
+            @Override
+            public void accept(Task task, Throwable throwable)
+            {
+                completed(node, throwable, executor);
+            }
+        });
+    }
+
+    private synchronized void completed(Node node, Throwable throwable, TaskExecutor executor)
+    {
+        if (node.exitStatus != Task.EXIT_RUNNING) {
+            return;
+        }
+        if (throwable instanceof CancellationException) {
+            finished(node, TaskCommand.EXIT_CANCELLED, null, executor);
+        } else if (throwable != null) {
+            Throwable cause = (throwable instanceof CompletionException) && (throwable.getCause() != null)
+                ? throwable.getCause() : throwable;
+            finished(node, TaskCommand.EXIT_TASK_FAILED, cause, executor);
+        } else if (node.future.isCancelled()) {
+            // Stopped part way through.
+            finished(node, TaskCommand.EXIT_CANCELLED, null, executor);
+        } else {
+            int status = node.task.getExitStatus();
+            finished(node, status == Task.EXIT_RUNNING ? 0 : status, null, executor);
+        }
+    }
+
+    private void finished(Node node, int exitStatus, Throwable exception, TaskExecutor executor)
+    {
+        node.exitStatus = exitStatus;
+        node.exception = exception;
+        _remaining--;
+
+        if (_failFast && (exitStatus != 0) && !_stopped) {
+            stop();
+        }
+
+        for (Node dependent : node.dependents) {
+            if (dependent.started) {
+                continue;
+            }
+            if (exitStatus == 0) {
+                if (--dependent.waiting == 0) {
+                    start(dependent, executor);
+                }
+            } else {
+                dependent.started = true;
+                finished(dependent, TaskCommand.EXIT_CANCELLED, null, executor);
+            }
+        }
+
+        if ((_remaining == 0) && (_future != null)) {
+            _future.complete(getExitStatus());
+        }
+    }
+
+    /**
+     * A Task, and its place in the graph of dependencies.
+     */
+    private static class Node
+    {
+        final Task task;
+
+        final List<Node> dependencies = new ArrayList<Node>();
+
+        final List<Node> dependents = new ArrayList<Node>();
+
+        /**
+         * Copies values from the dependencies into this Task's parameters.
+         */
+        final List<Runnable> links = new ArrayList<Runnable>();
+
+        int waiting;
+
+        boolean started;
+
+        CompletableFuture<Task> future;
+
+        int exitStatus = Task.EXIT_RUNNING;
+
+        Throwable exception;
+
+        Node(Task task)
+        {
+            this.task = task;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package uk.co.nickthecoder.jguifier.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+
+/**
+ * A File, which remembers its {@link BasicFileAttributes}, so that {@link #isDirectory()}, {@link #isFile()},
+ * {@link #isHidden()}, {@link #length()} and {@link #lastModified()} don't query the file system each time
+ * they are called. Created by {@link FileLister#cacheAttributes()}.
+ * <p>
+ * Note, the attributes are those at the time that the file was listed, and are not updated if the file changes.
+ * </p>
+ * 
+ * @priority 4
+ */
+public class AttributedFile extends File
+{
+    private static final long serialVersionUID = 1L;
+
+    private final transient BasicFileAttributes _attributes;
+
+    public AttributedFile(Path path, BasicFileAttributes attributes)
+    {
+        super(path.toString());
+        _attributes = attributes;
+    }
+
+    /**
+     * Reads the attributes of path (following symbolic links, in the same way as {@link File#isDirectory()} does).
+     * 
+     * @param path
+     * @return An AttributedFile, or a plain File if the attributes could not be read (such as a broken symbolic link).
+     */
+    public static File create(Path path)
+    {
+        try {
+            return new AttributedFile(path, Files.readAttributes(path, BasicFileAttributes.class));
+        } catch (IOException e) {
+            return path.toFile();
+        }
+    }
+
+    public BasicFileAttributes getAttributes()
+    {
+        return _attributes;
+    }
+
+    @Override
+    public boolean exists()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean isDirectory()
+    {
+        return _attributes.isDirectory();
+    }
+
+    @Override
+    public boolean isFile()
+    {
+        return _attributes.isRegularFile();
+    }
+
+    @Override
+    public boolean isHidden()
+    {
+        if (_attributes instanceof DosFileAttributes) {
+            return ((DosFileAttributes) _attributes).isHidden();
+        }
+        return getName().startsWith(".");
+    }
+
+    @Override
+    public long length()
+    {
+        return _attributes.size();
+    }
+
+    @Override
+    public long lastModified()
+    {
+        return _attributes.lastModifiedTime().toMillis();
+    }
+}
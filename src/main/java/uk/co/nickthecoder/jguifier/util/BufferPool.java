@@ -0,0 +1,130 @@
+package uk.co.nickthecoder.jguifier.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of reusable byte and char buffers, used by the {@link Sink}s, so that each process run by {@link Exec}
+ * doesn't allocate new buffers. Large buffers mean fewer (expensive) read system calls when there is a lot of
+ * output, and pooling them means that running lots of short-lived processes stays cheap.
+ * <p>
+ * Each Sink uses {@link #getDefault()} unless told otherwise, via {@link SimpleSink#setBufferPool(BufferPool)}
+ * or {@link CopySink#setBufferPool(BufferPool)}.
+ * </p>
+ * 
+ * @priority 4
+ */
+public class BufferPool
+{
+    public static final int DEFAULT_BUFFER_SIZE = 65536;
+
+    private static final BufferPool defaultPool = new BufferPool(DEFAULT_BUFFER_SIZE, 32);
+
+    private final int _bufferSize;
+
+    private final int _maxPooled;
+
+    private final Queue<byte[]> _bytes = new ConcurrentLinkedQueue<byte[]>();
+
+    private final Queue<char[]> _chars = new ConcurrentLinkedQueue<char[]>();
+
+    private final AtomicInteger _pooledBytes = new AtomicInteger();
+
+    private final AtomicInteger _pooledChars = new AtomicInteger();
+
+    /**
+     * @return A pool of 64 KB buffers, shared by all Sinks which haven't been given a different pool.
+     */
+    public static BufferPool getDefault()
+    {
+        return defaultPool;
+    }
+
+    /**
+     * @param bufferSize
+     *            The size of each buffer (in bytes or chars)
+     * @param maxPooled
+     *            The maximum number of buffers of each kind kept for reuse. Use 0 to allocate new buffers each time.
+     */
+    public BufferPool(int bufferSize, int maxPooled)
+    {
+        _bufferSize = bufferSize;
+        _maxPooled = maxPooled;
+    }
+
+    public int getBufferSize()
+    {
+        return _bufferSize;
+    }
+
+    /**
+     * @return A buffer of {@link #getBufferSize()} bytes. Pass it to {@link #release(byte[])} when finished with.
+     */
+    public byte[] acquireBytes()
+    {
+        byte[] buffer = _bytes.poll();
+        if (buffer == null) {
+            return new byte[_bufferSize];
+        }
+        _pooledBytes.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * @return A buffer of {@link #getBufferSize()} chars. Pass it to {@link #release(char[])} when finished with.
+     */
+    public char[] acquireChars()
+    {
+        char[] buffer = _chars.poll();
+        if (buffer == null) {
+            return new char[_bufferSize];
+        }
+        _pooledChars.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers of a different size, and buffers beyond the pool's limit, are left for
+     * the garbage collector.
+     */
+    public void release(byte[] buffer)
+    {
+        if (buffer.length != _bufferSize) {
+            return;
+        }
+        if (_pooledBytes.incrementAndGet() <= _maxPooled) {
+            _bytes.offer(buffer);
+        } else {
+            _pooledBytes.decrementAndGet();
+        }
+    }
+
+    public void release(char[] buffer)
+    {
+        if (buffer.length != _bufferSize) {
+            return;
+        }
+        if (_pooledChars.incrementAndGet() <= _maxPooled) {
+            _chars.offer(buffer);
+        } else {
+            _pooledChars.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return The number of byte buffers currently held for reuse.
+     */
+    public int getPooledBytes()
+    {
+        return _pooledBytes.get();
+    }
+
+    /**
+     * @return The number of char buffers currently held for reuse.
+     */
+    public int getPooledChars()
+    {
+        return _pooledChars.get();
+    }
+}
@@ -0,0 +1,15 @@
+package uk.co.nickthecoder.jguifier.util;
+
+/**
+ * A {@link Sink} which keeps the output in memory, such as {@link StringBufferSink}, {@link ByteSink} and
+ * {@link TailSink}. Used by {@link ExecStats} to report how much memory the output is using.
+ * 
+ * @priority 5
+ */
+public interface BufferingSink extends Sink
+{
+    /**
+     * @return The approximate number of bytes of memory used to hold the output.
+     */
+    public long getBufferedBytes();
+}
@@ -0,0 +1,203 @@
+package uk.co.nickthecoder.jguifier.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Captures the output as raw bytes. Unlike {@link StringBufferSink}, the output isn't decoded into characters as
+ * it is read, (which costs time, and doubles the memory used for ASCII text), and there is no synchronisation on
+ * each read. The output is read directly into a growable byte array, and only decoded when asked for, using
+ * {@link #toString(Charset)} or {@link #toLines(Charset)}.
+ * 
+ * <pre>
+ * <code>
+ * ByteSink out = new ByteSink();
+ * new Exec("ls", "-l").stdout(out).run();
+ * for (String line : out.toLines(StandardCharsets.UTF_8)) {
+ *     ...
+ * }
+ * </code>
+ * </pre>
+ * 
+ * Only read the results once the command has finished.
+ * 
+ * @priority 4
+ */
+public class ByteSink implements BufferingSink
+{
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private InputStream _in;
+
+    private byte[] _bytes;
+
+    private int _size = 0;
+
+    public ByteSink()
+    {
+        this(8192);
+    }
+
+    /**
+     * @param initialCapacity
+     *            The initial size of the array. Grows (by doubling) when needed.
+     */
+    public ByteSink(int initialCapacity)
+    {
+        _bytes = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    @Override
+    public void setStream(InputStream in)
+    {
+        _in = in;
+    }
+
+    @Override
+    public void run()
+    {
+        if (_in == null) {
+            return;
+        }
+        _size = 0;
+        try {
+            int amount;
+            while (true) {
+                if (_size == _bytes.length) {
+                    grow();
+                }
+                amount = _in.read(_bytes, _size, _bytes.length - _size);
+                if (amount == -1) {
+                    break;
+                }
+                _size += amount;
+            }
+        } catch (IOException e) {
+            sinkError(e);
+        } finally {
+            try {
+                _in.close();
+            } catch (Exception e) {
+                // Do nothing
+            }
+        }
+    }
+
+    private void grow()
+        throws IOException
+    {
+        if (_bytes.length >= MAX_ARRAY_SIZE) {
+            throw new IOException("Output too large for ByteSink");
+        }
+        int capacity = (int) Math.min((long) _bytes.length * 2, MAX_ARRAY_SIZE);
+        _bytes = Arrays.copyOf(_bytes, capacity);
+    }
+
+    protected void sinkError(IOException e)
+    {
+        System.err.println("Sink error : " + e);
+        e.printStackTrace();
+    }
+
+    /**
+     * @return The number of bytes captured.
+     */
+    public int size()
+    {
+        return _size;
+    }
+
+    /**
+     * @return The size of the array holding the output, which may be up to twice {@link #size()}.
+     */
+    @Override
+    public long getBufferedBytes()
+    {
+        return _bytes.length;
+    }
+
+    /**
+     * Direct access to the captured bytes, without copying them. Only the first {@link #size()} bytes are valid.
+     * 
+     * @return The internal array, which must not be modified.
+     */
+    public byte[] getBuffer()
+    {
+        return _bytes;
+    }
+
+    /**
+     * @return A copy of the captured bytes.
+     */
+    public byte[] toByteArray()
+    {
+        return Arrays.copyOf(_bytes, _size);
+    }
+
+    /**
+     * @return The captured bytes as a stream, without copying them.
+     */
+    public InputStream toInputStream()
+    {
+        return new ByteArrayInputStream(_bytes, 0, _size);
+    }
+
+    public void writeTo(OutputStream out)
+        throws IOException
+    {
+        out.write(_bytes, 0, _size);
+    }
+
+    public String toString(Charset charset)
+    {
+        return new String(_bytes, 0, _size, charset);
+    }
+
+    /**
+     * Splits the output into lines, in the same way as {@link Exec#getStdoutAsArray()}, but without using a
+     * regular expression, and without decoding the whole output into a single String first. As with
+     * {@link String#split(String)}, trailing empty lines are dropped, and empty output gives a single empty line.
+     * The charset must encode '\n' as a single byte, as UTF-8 and other ASCII based charsets do (but not UTF-16).
+     * 
+     * @param charset
+     * @return The lines, without the line terminators ("\n" or "\r\n").
+     */
+    public List<String> toLines(Charset charset)
+    {
+        List<String> lines = new ArrayList<String>();
+        int start = 0;
+        for (int i = 0; i < _size; i++) {
+            if (_bytes[i] == '\n') {
+                int end = (i > start) && (_bytes[i - 1] == '\r') ? i - 1 : i;
+                lines.add(new String(_bytes, start, end - start, charset));
+                start = i + 1;
+            }
+        }
+        if (start < _size) {
+            lines.add(new String(_bytes, start, _size - start, charset));
+        }
+        if (_size == 0) {
+            lines.add("");
+            return lines;
+        }
+        while (!lines.isEmpty() && lines.get(lines.size() - 1).isEmpty()) {
+            lines.remove(lines.size() - 1);
+        }
+        return lines;
+    }
+
+    /**
+     * @return The captured output, decoded using the platform's default character set.
+     */
+    @Override
+    public String toString()
+    {
+        return toString(Charset.defaultCharset());
+    }
+}
@@ -0,0 +1,396 @@
+package uk.co.nickthecoder.jguifier.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the results of {@link Exec}s, so that running the same command again (with the same arguments,
+ * environment variables, working directory and input) returns the stored output, without running the command. Only
+ * use this for commands whose output depends solely on those things (for example, format converters, or
+ * "git rev-parse HEAD" in a repository which isn't changing).
+ * 
+ * <pre>
+ * <code>
+ * static final CachePolicy cache = new CachePolicy().maxEntries(500).disk();
+ * ...
+ * new Exec("convert", in.getPath(), "-format", "%wx%h", "info:").stdout().cached(cache).run();
+ * </code>
+ * </pre>
+ * 
+ * The results are kept in memory, in a least recently used cache, and optionally on disk, so that they survive
+ * between runs of the application. Share a single CachePolicy between the Execs which should use the same cache.
+ * <p>
+ * The key includes the environment variables set using {@link Exec#var(String, String)}, but not those inherited
+ * from this JVM. The input is only known, (and therefore the result only cached), when stdin is unused, a String,
+ * or a file. Timed out commands are never cached, and by default, neither are commands with a non-zero exit
+ * status (see {@link #cacheFailures()}). Commands which are stopped (see {@link Exec#stop()}) are never cached,
+ * and neither are those whose output is larger than {@link #maxEntryBytes(int)}.
+ * </p>
+ * <p>
+ * On disk, the least recently used results are deleted when there are more than {@link #maxDiskEntries(int)}, and
+ * expired results are deleted when they are found.
+ * </p>
+ * 
+ * @priority 4
+ */
+public class CachePolicy
+{
+    private static final int MAGIC = 0x4a474543; // "JGEC"
+
+    private static final int VERSION = 1;
+
+    /**
+     * Added to the names of the files on disk, so that {@link #clear()} only deletes files which it created.
+     */
+    private static final String SUFFIX = ".jgec";
+
+    private int _maxEntries = 100;
+
+    private int _maxDiskEntries = 1000;
+
+    private int _maxEntryBytes = 1024 * 1024;
+
+    private File _directory = null;
+
+    private long _maxAgeMillis = Long.MAX_VALUE;
+
+    private boolean _cacheFailures = false;
+
+    private final Map<String, Entry> _memory = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachePolicy.Entry> eldest)
+        {
+            return size() > _maxEntries;
+        }
+    };
+
+    /**
+     * @param value
+     *            The maximum number of results to keep in memory. The default is 100.
+     * @return this
+     */
+    public CachePolicy maxEntries(int value)
+    {
+        _maxEntries = value;
+        return this;
+    }
+
+    public int getMaxEntries()
+    {
+        return _maxEntries;
+    }
+
+    /**
+     * @param value
+     *            The maximum number of results to keep on disk. The default is 1000.
+     * @return this
+     */
+    public CachePolicy maxDiskEntries(int value)
+    {
+        _maxDiskEntries = value;
+        return this;
+    }
+
+    public int getMaxDiskEntries()
+    {
+        return _maxDiskEntries;
+    }
+
+    /**
+     * @param value
+     *            Results whose stdout and stderr together are larger than this aren't cached. Exec stops copying the
+     *            output once it reaches this size. The default is 1MB.
+     * @return this
+     */
+    public CachePolicy maxEntryBytes(int value)
+    {
+        _maxEntryBytes = value;
+        return this;
+    }
+
+    public int getMaxEntryBytes()
+    {
+        return _maxEntryBytes;
+    }
+
+    /**
+     * Also store the results on disk, in the default directory, which on Linux is
+     * <code>~/.cache/jguifier/exec</code>.
+     * 
+     * @return this
+     */
+    public CachePolicy disk()
+    {
+        return directory(Util.createFile(new File(System.getProperty("user.home")), ".cache", "jguifier", "exec"));
+    }
+
+    /**
+     * Also store the results on disk.
+     * 
+     * @param directory
+     *            Where the results are stored. It does not need to exist yet.
+     * @return this
+     */
+    public CachePolicy directory(File directory)
+    {
+        _directory = directory;
+        return this;
+    }
+
+    public File getDirectory()
+    {
+        return _directory;
+    }
+
+    /**
+     * @param millis
+     *            Results older than this are not used. By default, results never expire.
+     * @return this
+     */
+    public CachePolicy maxAge(long millis)
+    {
+        _maxAgeMillis = millis;
+        return this;
+    }
+
+    public long getMaxAge()
+    {
+        return _maxAgeMillis;
+    }
+
+    /**
+     * Cache the results of commands which return a non-zero exit status. By default they aren't cached.
+     * 
+     * @return this
+     */
+    public CachePolicy cacheFailures()
+    {
+        _cacheFailures = true;
+        return this;
+    }
+
+    public boolean getCacheFailures()
+    {
+        return _cacheFailures;
+    }
+
+    /**
+     * Forgets all of the results, including those on disk. Other files in the directory are left alone.
+     */
+    public synchronized void clear()
+    {
+        _memory.clear();
+        for (File file : listFiles()) {
+            if (isOurs(file)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @return The files in the directory with a CachePolicy's names (including temporary files, left by a failed
+     *         save).
+     */
+    private List<File> listFiles()
+    {
+        List<File> result = new ArrayList<File>();
+        File[] files = (_directory == null) ? null : _directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(SUFFIX) || name.endsWith(SUFFIX + ".tmp")) {
+                    result.add(file);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the file starts with a CachePolicy's header.
+     */
+    private static boolean isOurs(File file)
+    {
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                return in.readInt() == MAGIC;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param key
+     * @return The stored result, or null if there isn't one, or it has expired.
+     */
+    synchronized Entry get(String key)
+    {
+        Entry entry = _memory.get(key);
+        if ((entry == null) && (_directory != null)) {
+            entry = load(key);
+            if (entry != null) {
+                _memory.put(key, entry);
+            }
+        }
+        if ((entry != null) && (System.currentTimeMillis() - entry.created > _maxAgeMillis)) {
+            _memory.remove(key);
+            if (_directory != null) {
+                new File(_directory, key + SUFFIX).delete();
+            }
+            return null;
+        }
+        return entry;
+    }
+
+    synchronized void put(String key, int exitStatus, byte[] stdout, byte[] stderr)
+    {
+        if ((exitStatus != 0) && !_cacheFailures) {
+            return;
+        }
+        if ((long) stdout.length + stderr.length > _maxEntryBytes) {
+            return;
+        }
+        Entry entry = new Entry(System.currentTimeMillis(), exitStatus, stdout, stderr);
+        _memory.put(key, entry);
+        if (_directory != null) {
+            try {
+                save(key, entry);
+            } catch (IOException e) {
+                // The result is still cached in memory.
+            }
+            prune();
+        }
+    }
+
+    /**
+     * Deletes expired results from disk, and then the least recently used, until there are at most
+     * {@link #getMaxDiskEntries()}. The files' last modified times are updated when they are read, so they give the
+     * order in which they were used.
+     */
+    private void prune()
+    {
+        List<File> files = listFiles();
+        if ((files.size() <= _maxDiskEntries) && (_maxAgeMillis == Long.MAX_VALUE)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        final Map<File, Long> used = new LinkedHashMap<File, Long>();
+        for (File file : files) {
+            used.put(file, file.lastModified());
+        }
+        Collections.sort(files, new Comparator<File>()
+        {
+            @Override
+            public int compare(File a, File b)
+            {
+                return Long.compare(used.get(b), used.get(a));
+            }
+        });
+        int kept = 0;
+        for (File file : files) {
+            // lastModified is no earlier than the result's creation time, so expired results may be kept a while.
+            if ((kept >= _maxDiskEntries) || (now - used.get(file) > _maxAgeMillis)) {
+                file.delete();
+            } else {
+                kept++;
+            }
+        }
+    }
+
+    private Entry load(String key)
+    {
+        File file = new File(_directory, key + SUFFIX);
+        if (!file.exists()) {
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+                    return null;
+                }
+                long created = in.readLong();
+                int exitStatus = in.readInt();
+                byte[] stdout = new byte[in.readInt()];
+                in.readFully(stdout);
+                byte[] stderr = new byte[in.readInt()];
+                in.readFully(stderr);
+                return new Entry(created, exitStatus, stdout, stderr);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // A corrupt entry is treated as missing, and will be replaced.
+            return null;
+        }
+    }
+
+    /**
+     * The result is written to a temporary file, and then renamed, so that a failure part way through doesn't
+     * leave a corrupt entry.
+     */
+    private void save(String key, Entry entry) throws IOException
+    {
+        _directory.mkdirs();
+        File file = new File(_directory, key + SUFFIX);
+        File tmp = new File(_directory, key + SUFFIX + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(entry.created);
+            out.writeInt(entry.exitStatus);
+            out.writeInt(entry.stdout.length);
+            out.write(entry.stdout);
+            out.writeInt(entry.stderr.length);
+            out.write(entry.stderr);
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * A stored result.
+     */
+    static class Entry
+    {
+        final long created;
+
+        final int exitStatus;
+
+        final byte[] stdout;
+
+        final byte[] stderr;
+
+        Entry(long created, int exitStatus, byte[] stdout, byte[] stderr)
+        {
+            this.created = created;
+            this.exitStatus = exitStatus;
+            this.stdout = stdout;
+            this.stderr = stderr;
+        }
+    }
+}
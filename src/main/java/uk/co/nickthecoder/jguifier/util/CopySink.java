@@ -5,13 +5,22 @@ import java.io.InputStream;
 import java.io.OutputStream;
 
 /**
- * Copies the data from an OutputStream to an InputSteam.
+ * Copies the data from an OutputStream to an InputSteam, using a buffer from a {@link BufferPool}.
  * 
  * @priority 4
  */
 public class CopySink implements Sink
 {
-    protected int _bufferSize = 1024;
+    protected BufferPool _bufferPool = BufferPool.getDefault();
+
+    /**
+     * The size of the buffers used.
+     * 
+     * @deprecated Use {@link #setBufferPool(BufferPool)}. Kept for sub-classes which read or set it. If it is changed,
+     *             then buffers of this size are used, rather than those from the pool.
+     */
+    @Deprecated
+    protected int _bufferSize = BufferPool.DEFAULT_BUFFER_SIZE;
 
     protected OutputStream _out;
 
@@ -37,20 +46,41 @@ public class CopySink implements Sink
         _in = in;
     }
 
+    public void setBufferPool(BufferPool pool)
+    {
+        _bufferPool = pool;
+        _bufferSize = pool.getBufferSize();
+    }
+
+    /**
+     * @return The pool of buffers, which is replaced by a pool of the correct size if a sub-class has changed the
+     *         deprecated {@link #_bufferSize}.
+     */
+    public BufferPool getBufferPool()
+    {
+        if (_bufferSize != _bufferPool.getBufferSize()) {
+            _bufferPool = new BufferPool(_bufferSize, 1);
+        }
+        return _bufferPool;
+    }
+
     @Override
     public void run()
     {
 
-        byte[] buffer = new byte[_bufferSize];
+        BufferPool pool = getBufferPool();
+        byte[] buffer = pool.acquireBytes();
 
         int len = 0;
 
         try {
-            while ((len = _in.read(buffer, 0, _bufferSize)) != -1) {
+            while ((len = _in.read(buffer, 0, buffer.length)) != -1) {
                 _out.write(buffer, 0, len);
             }
         } catch (IOException e) {
             sinkError(e);
+        } finally {
+            pool.release(buffer);
         }
 
     }
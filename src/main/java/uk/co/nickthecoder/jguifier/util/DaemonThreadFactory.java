@@ -0,0 +1,30 @@
+package uk.co.nickthecoder.jguifier.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads with meaningful names, so that background work (such as reading the output of an
+ * {@link Exec}) doesn't prevent the JVM from exiting, and can be identified in a thread dump.
+ * 
+ * @priority 5
+ */
+public class DaemonThreadFactory implements ThreadFactory
+{
+    private final String _name;
+
+    private final AtomicInteger _count = new AtomicInteger();
+
+    public DaemonThreadFactory(String name)
+    {
+        _name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable)
+    {
+        Thread thread = new Thread(runnable, _name + "-" + _count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
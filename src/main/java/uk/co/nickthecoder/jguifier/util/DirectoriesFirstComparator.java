@@ -8,6 +8,7 @@ import java.util.Comparator;
  * Note, the directories and files will then be ordered according to the Comparator passed
  * to the constructor. If no Comparator is given, then the files and directories will be ordered
  * alphabetically.
+ * Anything which isn't a directory is treated as a file.
  * 
  * @priority 4
  */
@@ -28,14 +29,9 @@ public class DirectoriesFirstComparator implements Comparator<File>
     @Override
     public int compare(File a, File b)
     {
-        if (a.isFile()) {
-            if (b.isDirectory()) {
-                return 1;
-            }
-        } else {
-            if (b.isFile()) {
-                return -1;
-            }
+        boolean aIsDirectory = a.isDirectory();
+        if (aIsDirectory != b.isDirectory()) {
+            return aIsDirectory ? -1 : 1;
         }
 
         return _comparator.compare(a, b);
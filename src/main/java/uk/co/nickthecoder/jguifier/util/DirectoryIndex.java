@@ -0,0 +1,346 @@
+package uk.co.nickthecoder.jguifier.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A persistent cache of directory listings, used by {@link FileLister#index(DirectoryIndex)} to avoid re-reading
+ * directories which haven't changed since the last time they were listed.
+ * <p>
+ * For each directory, the index stores its last modified time, and the names and types (file or directory) of its
+ * entries. Adding, removing or renaming an entry changes the directory's last modified time, so if the time is
+ * unchanged, the stored listing is still correct, and only a single call to {@link File#lastModified()} is needed
+ * rather than reading the directory, and checking the type of each entry.
+ * </p>
+ * <p>
+ * Directories which were modified just before they were indexed are not trusted, because a further change
+ * within the resolution of the file system's timestamps would go unnoticed. They are re-read on the next listing.
+ * Note, if the target of a symbolic link changes from a directory to a file (or vice versa), then the index won't
+ * notice, so call {@link #clear()} if that's a concern.
+ * </p>
+ * <p>
+ * Directories which no longer exist are dropped from the index when they are looked up, or when the index is saved,
+ * so it doesn't grow without limit when directories are created and deleted.
+ * </p>
+ *
+ * <pre>
+ * <code>
+ * DirectoryIndex index = new DirectoryIndex();
+ * List&lt;File&gt; files = new FileLister().depth(10).index(index).listFiles(directory);
+ * </code>
+ * </pre>
+ *
+ * The index is loaded when first used, and saved by {@link FileLister} at the end of each listing.
+ *
+ * @priority 4
+ */
+public class DirectoryIndex
+{
+    private static final int MAGIC = 0x4a474449; // "JGDI"
+
+    private static final int VERSION = 1;
+
+    /**
+     * The coarsest resolution of file timestamps that we expect to find (FAT file systems use 2 seconds).
+     */
+    private static final long MTIME_RESOLUTION = 2000;
+
+    private static final byte OTHER = 0;
+    private static final byte FILE = 1;
+    private static final byte DIRECTORY = 2;
+
+    private final File _file;
+
+    private Map<String, Entry> _entries;
+
+    private volatile boolean _dirty = false;
+
+    private final AtomicInteger _reads = new AtomicInteger();
+
+    /**
+     * Uses the default index file, which on Linux is <code>~/.cache/jguifier/directories.index</code>.
+     */
+    public DirectoryIndex()
+    {
+        this(Util.createFile(new File(System.getProperty("user.home")), ".cache", "jguifier", "directories.index"));
+    }
+
+    /**
+     * @param file
+     *            Where the index is stored. It does not need to exist yet.
+     */
+    public DirectoryIndex(File file)
+    {
+        _file = file;
+    }
+
+    public File getFile()
+    {
+        return _file;
+    }
+
+    /**
+     * @return The number of directories which were read from the file system, rather than listed from the index,
+     *         since this DirectoryIndex was created.
+     */
+    public int getReads()
+    {
+        return _reads.get();
+    }
+
+    /**
+     * @return The number of directories in the index.
+     */
+    public int size()
+    {
+        return entries().size();
+    }
+
+    /**
+     * Lists a directory, using the index if the directory hasn't changed, or reading the directory (and updating
+     * the index) if it has.
+     *
+     * @param directory
+     * @return The contents of the directory, or null if it could not be read (in the same way as
+     *         {@link File#listFiles()}).
+     */
+    public File[] listFiles(File directory)
+    {
+        Map<String, Entry> entries = entries();
+
+        String key = directory.getAbsolutePath();
+        long lastModified = directory.lastModified();
+        if (lastModified == 0) {
+            if (entries.remove(key) != null) {
+                _dirty = true;
+            }
+            _reads.incrementAndGet();
+            return directory.listFiles();
+        }
+
+        Entry entry = entries.get(key);
+        if ((entry == null) || (entry.lastModified != lastModified) || !entry.isTrusted()) {
+            File[] children = directory.listFiles();
+            _reads.incrementAndGet();
+            if (children == null) {
+                return null;
+            }
+            entry = new Entry(lastModified, System.currentTimeMillis(), children);
+            entries.put(key, entry);
+            _dirty = true;
+        } else {
+            entry.exists = true;
+        }
+
+        return entry.createFiles(directory);
+    }
+
+    /**
+     * Forgets all of the directories in the index. The index file isn't changed until {@link #save()}.
+     */
+    public void clear()
+    {
+        entries().clear();
+        _dirty = true;
+    }
+
+    /**
+     * Writes the index, if it has changed since it was loaded (or last saved), leaving out directories which no
+     * longer exist.
+     * The index is written to a temporary file, and then renamed, so a failure part way through does not
+     * corrupt the existing index.
+     *
+     * @throws IOException
+     */
+    public synchronized void save()
+        throws IOException
+    {
+        if (!_dirty) {
+            return;
+        }
+        // Cleared before taking the snapshot, so that a change made while writing is saved next time.
+        _dirty = false;
+
+        List<Map.Entry<String, Entry>> snapshot = new ArrayList<Map.Entry<String, Entry>>(_entries.size());
+        for (Map.Entry<String, Entry> mapEntry : _entries.entrySet()) {
+            if (!mapEntry.getValue().exists && (new File(mapEntry.getKey()).lastModified() == 0)) {
+                _entries.remove(mapEntry.getKey(), mapEntry.getValue());
+            } else {
+                snapshot.add(mapEntry);
+            }
+        }
+
+        File parent = _file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        File tmp = new File(_file.getPath() + ".tmp");
+        boolean saved = false;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Entry> mapEntry : snapshot) {
+                Entry entry = mapEntry.getValue();
+                out.writeUTF(mapEntry.getKey());
+                out.writeLong(entry.lastModified);
+                out.writeLong(entry.indexed);
+                out.writeInt(entry.names.length);
+                for (int i = 0; i < entry.names.length; i++) {
+                    out.writeByte(entry.types[i]);
+                    out.writeUTF(entry.names[i]);
+                }
+            }
+            out.close();
+            Files.move(tmp.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            saved = true;
+        } finally {
+            if (!saved) {
+                out.close();
+                _dirty = true;
+            }
+        }
+    }
+
+    private synchronized Map<String, Entry> entries()
+    {
+        if (_entries == null) {
+            _entries = new ConcurrentHashMap<String, Entry>();
+            if (_file.exists()) {
+                try {
+                    load();
+                } catch (IOException e) {
+                    // A corrupt or out of date index is simply rebuilt.
+                    _entries.clear();
+                }
+            }
+        }
+        return _entries;
+    }
+
+    private void load()
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(_file), 65536));
+        try {
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+                return;
+            }
+            int count = in.readInt();
+            for (int e = 0; e < count; e++) {
+                String key = in.readUTF();
+                long lastModified = in.readLong();
+                long indexed = in.readLong();
+                int size = in.readInt();
+                String[] names = new String[size];
+                byte[] types = new byte[size];
+                for (int i = 0; i < size; i++) {
+                    types[i] = in.readByte();
+                    names[i] = in.readUTF();
+                }
+                _entries.put(key, new Entry(lastModified, indexed, names, types));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * The stored listing of a single directory.
+     */
+    private static class Entry
+    {
+        final long lastModified;
+
+        /**
+         * The time that the directory was read.
+         */
+        final long indexed;
+
+        final String[] names;
+
+        final byte[] types;
+
+        /**
+         * True once the directory has been seen to exist since the index was loaded, so {@link #save()} doesn't
+         * need to check it again.
+         */
+        volatile boolean exists;
+
+        Entry(long lastModified, long indexed, String[] names, byte[] types)
+        {
+            this.lastModified = lastModified;
+            this.indexed = indexed;
+            this.names = names;
+            this.types = types;
+        }
+
+        Entry(long lastModified, long indexed, File[] children)
+        {
+            this(lastModified, indexed, new String[children.length], new byte[children.length]);
+            exists = true;
+            for (int i = 0; i < children.length; i++) {
+                File child = children[i];
+                names[i] = child.getName();
+                types[i] = child.isDirectory() ? DIRECTORY : child.isFile() ? FILE : OTHER;
+            }
+        }
+
+        boolean isTrusted()
+        {
+            return lastModified + MTIME_RESOLUTION < indexed;
+        }
+
+        File[] createFiles(File directory)
+        {
+            File[] files = new File[names.length];
+            for (int i = 0; i < names.length; i++) {
+                files[i] = new IndexedFile(directory, names[i], types[i]);
+            }
+            return files;
+        }
+    }
+
+    /**
+     * A File whose type is already known from the index, so {@link #isDirectory()} and {@link #isFile()} don't
+     * need to query the file system.
+     */
+    private static class IndexedFile extends File
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final byte _type;
+
+        IndexedFile(File parent, String name, byte type)
+        {
+            super(parent, name);
+            _type = type;
+        }
+
+        @Override
+        public boolean isDirectory()
+        {
+            return _type == DIRECTORY;
+        }
+
+        @Override
+        public boolean isFile()
+        {
+            return _type == FILE;
+        }
+    }
+}
@@ -1,17 +1,39 @@
 package uk.co.nickthecoder.jguifier.util;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Runs an operating system command. This is a high level abstraction around Runtime.exec.
@@ -76,29 +98,103 @@ public class Exec implements Runnable
         return new Exec("bash", "-c", commandString);
     }
 
-    private State _state = State.CREATED;
+    /**
+     * Reads the output of processes (see {@link Sink}). Threads are reused, so running many short-lived processes
+     * doesn't create new threads for each.
+     */
+    private static final ExecutorService PUMPS = Executors.newCachedThreadPool(new DaemonThreadFactory("Exec"));
+
+    /**
+     * Kills processes which have exceeded their timeout, or have not ended within the grace period after
+     * {@link #stop()}.
+     */
+    private static final ScheduledExecutorService TIMER = Executors
+        .newSingleThreadScheduledExecutor(new DaemonThreadFactory("Exec-timeout"));
+
+    private static final Method START_PIPELINE = findStartPipeline();
+
+    private static final Method ON_EXIT = findOnExit();
+
+    private static final List<ExecListener> globalListeners = new CopyOnWriteArrayList<ExecListener>();
+
+    private volatile State _state = State.CREATED;
 
     private List<String> _commandArray;
 
     private File _workingDirectory;
 
+    /**
+     * Changes to the environment variables inherited from this JVM. A null value removes the variable.
+     */
     private Map<String, String> _env = null;
 
+    /**
+     * If true, none of the JVM's environment variables are passed to the process, only those in _env.
+     */
+    private boolean _clearEnv = false;
+
     private Source _inSource = new NullSource();
 
     private Sink _outSink = new SimpleSink();
     private Sink _errSink = new SimpleSink();
 
+    /**
+     * Set by {@link #events(OutputEvents)}, so that it can be told about streams which won't be read.
+     */
+    private OutputEvents _events;
+
     private long _timeoutMillis;
 
+    private long _gracePeriodMillis = 2000;
+
     private boolean _throwOnError = false;
 
-    private Process _process;
+    /**
+     * Volatile, because {@link #stop()} may be called from another thread (or the TIMER) while starting.
+     */
+    private volatile Process _process;
 
     private boolean _mergeStderr = false;
 
-    private Thread _outSinkThread;
-    private Thread _errSinkThread;
+    private Future<?> _outSinkFuture;
+    private Future<?> _errSinkFuture;
+
+    private ScheduledFuture<?> _timeoutFuture;
+
+    /**
+     * The next Exec in a pipeline, when connected directly by the operating system (see {@link #stdout(Exec)}).
+     */
+    private Exec _pipedTo;
+
+    private List<ExecListener> _listeners;
+
+    private volatile ExecStats _stats;
+
+    private CachePolicy _cachePolicy;
+
+    private String _cacheKey;
+
+    /**
+     * Copies of stdout and stderr, to be stored by the CachePolicy, or null if not caching.
+     */
+    private ByteArrayOutputStream _outCopy;
+    private ByteArrayOutputStream _errCopy;
+
+    /**
+     * The number of bytes which may still be copied to _outCopy and _errCopy. Negative when the output was too large
+     * to be cached.
+     */
+    private AtomicLong _copyRemaining;
+
+    /**
+     * Set by {@link #stop()}, so that the truncated output of a stopped command isn't cached.
+     */
+    private volatile boolean _stopped;
+
+    /**
+     * The exit status, when the result was taken from the cache, rather than running a process.
+     */
+    private Integer _cachedExitStatus;
 
     public Exec(String... cmdArray)
     {
@@ -147,15 +243,18 @@ public class Exec implements Runnable
 
     /**
      * Sets an environment variable for the new process.
+     * Only the changes are stored, and they are applied to the inherited environment when the process is started,
+     * so the JVM's environment isn't copied for each Exec.
      * 
      * @param name
      * @param value
+     *            The value, or null to remove the variable from the inherited environment.
      * @return this
      */
     public Exec var(String name, String value)
     {
         if (_env == null) {
-            _env = new HashMap<String, String>(System.getenv());
+            _env = new HashMap<String, String>();
         }
         _env.put(name, value);
 
@@ -171,7 +270,8 @@ public class Exec implements Runnable
      */
     public Exec clearEnv()
     {
-        _env = new HashMap<String, String>();
+        _env = null;
+        _clearEnv = true;
         return this;
     }
 
@@ -181,19 +281,70 @@ public class Exec implements Runnable
         return this;
     }
 
-    public Exec stdin(final String input)
+    /**
+     * Sends a String to the process's stdin. It is written in the background, while the process's output is read.
+     * 
+     * @param input
+     * @return this
+     */
+    public Exec stdin(String input)
     {
-        _inSource = new SimplePrintSource()
-        {
-            @Override
-            public void setStream(OutputStream os)
-            {
-                super.setStream(os);
-                out.print(input);
-                out.close();
-            }
-        };
+        _inSource = new InputStreamSource(input.getBytes());
+        return this;
+    }
 
+    /**
+     * Copies from an InputStream to the process's stdin, in the background, while the process's output is read.
+     * 
+     * @param in
+     *            The data to send. It is closed once it has been copied.
+     * @return this
+     */
+    public Exec stdin(InputStream in)
+    {
+        _inSource = new InputStreamSource(in);
+        return this;
+    }
+
+    /**
+     * Sends the contents of a file to the process's stdin. If the file is on the default file system, then the
+     * process reads the file directly (see {@link FileSource}), otherwise it is copied in the background.
+     * 
+     * @param path
+     * @return this
+     */
+    public Exec stdin(Path path)
+    {
+        if (path.getFileSystem() == FileSystems.getDefault()) {
+            _inSource = new FileSource(path.toFile());
+        } else {
+            _inSource = new InputStreamSource(path);
+        }
+        return this;
+    }
+
+    /**
+     * Sends lines of text to the process's stdin, in the background. See {@link LinesSource}.
+     * 
+     * @param lines
+     * @return this
+     */
+    public Exec stdin(Iterator<String> lines)
+    {
+        _inSource = new LinesSource(lines);
+        return this;
+    }
+
+    /**
+     * Similar to a redirect such as mycommand &lt; file
+     * The process reads the file directly (see {@link FileSource}).
+     * 
+     * @param file
+     * @return this
+     */
+    public Exec stdin(File file)
+    {
+        _inSource = new FileSource(file);
         return this;
     }
 
@@ -203,6 +354,22 @@ public class Exec implements Runnable
         return this;
     }
 
+    /**
+     * Sends stdout and stderr to a single queue of events, so that they can be told apart, while keeping their
+     * relative order. See {@link OutputEvents}.
+     * 
+     * @param events
+     * @return this
+     */
+    public Exec events(OutputEvents events)
+    {
+        _mergeStderr = false;
+        _events = events;
+        _outSink = events.getStdoutSink();
+        _errSink = events.getStderrSink();
+        return this;
+    }
+
     public Exec mergeStderr(boolean value)
     {
         _mergeStderr = value;
@@ -248,6 +415,7 @@ public class Exec implements Runnable
 
     /**
      * Similar to a redirect such as mycommand > file
+     * The process writes directly to the file, without the data passing through the JVM (see {@link FileSink}).
      * 
      * @param file
      * @return this
@@ -315,7 +483,9 @@ public class Exec implements Runnable
     }
 
     /**
-     * Pipes the standard output of this Exec into the stdin of the taget Exec
+     * Pipes the standard output of this Exec into the stdin of the taget Exec.
+     * When running on Java 9 or later, the processes are connected directly by the operating system, so
+     * the data doesn't pass through the JVM.
      * 
      * @param target
      *            The Exec that will receive the output
@@ -354,6 +524,14 @@ public class Exec implements Runnable
         return _outSink;
     }
 
+    /**
+     * @return The Source for stdin.
+     */
+    public Source getStdin()
+    {
+        return _inSource;
+    }
+
     /**
      * The Sink for stderr. If you buffered the output using {@link #stderr()}, then the easiest way to get the
      * output is : <code><pre>
@@ -427,17 +605,21 @@ public class Exec implements Runnable
      */
     public String[] getEnvironment()
     {
-        String[] environment = null;
+        if ((_env == null) && !_clearEnv) {
+            return null;
+        }
 
-        if (_env != null) {
-            ArrayList<String> variables = new ArrayList<String>();
-            for (String name : _env.keySet()) {
-                variables.add(name + "=" + _env.get(name));
-            }
-            environment = variables.toArray(new String[variables.size()]);
+        Map<String, String> env = new HashMap<String, String>();
+        if (!_clearEnv) {
+            env.putAll(System.getenv());
         }
+        applyEnvironment(env);
 
-        return environment;
+        ArrayList<String> variables = new ArrayList<String>();
+        for (String name : env.keySet()) {
+            variables.add(name + "=" + env.get(name));
+        }
+        return variables.toArray(new String[variables.size()]);
     }
 
     /**
@@ -451,6 +633,88 @@ public class Exec implements Runnable
         return this;
     }
 
+    /**
+     * When the process is stopped (or times out), it is first asked to end, and if it is still running after this
+     * grace period, it is killed. See {@link #stop()}.
+     * 
+     * @param millis
+     *            The time to wait before killing the process. The default is 2 seconds. Use a negative number to
+     *            never kill the process forcibly.
+     * @return this
+     */
+    public Exec gracePeriod(long millis)
+    {
+        _gracePeriodMillis = millis;
+        return this;
+    }
+
+    /**
+     * Adds a listener, which is notified when this Exec starts and finishes.
+     * 
+     * @param listener
+     * @return this
+     */
+    public Exec listener(ExecListener listener)
+    {
+        if (_listeners == null) {
+            _listeners = new ArrayList<ExecListener>();
+        }
+        _listeners.add(listener);
+        return this;
+    }
+
+    /**
+     * Adds a listener, which is notified when any Exec starts and finishes. Useful to find which commands are
+     * slow, without changing the code which runs them.
+     * 
+     * @param listener
+     */
+    public static void addGlobalListener(ExecListener listener)
+    {
+        globalListeners.add(listener);
+    }
+
+    public static void removeGlobalListener(ExecListener listener)
+    {
+        globalListeners.remove(listener);
+    }
+
+    /**
+     * @return Timings, and the amount of data read and written, or null if the Exec hasn't been started.
+     *         The statistics are incomplete until the Exec has finished.
+     */
+    public ExecStats getStats()
+    {
+        return _stats;
+    }
+
+    /**
+     * Reuses the result of an identical command (the same arguments, environment variables set by
+     * {@link #var(String, String)}, working directory and input), if one has been stored by the CachePolicy,
+     * rather than running the process. The stored stdout and stderr are passed to the Sinks as usual.
+     * Only applies to {@link #run()} and {@link #runAsync()}. Commands whose input can't be known in advance, (such
+     * as from an InputStream), and commands piped to other Execs are always run.
+     * <p>
+     * When the result is taken from the cache, {@link #getProcess()} and {@link #getStats()} return null.
+     * </p>
+     * 
+     * @param policy
+     * @return this
+     */
+    public Exec cached(CachePolicy policy)
+    {
+        _cachePolicy = policy;
+        return this;
+    }
+
+    /**
+     * @return true if the result was taken from the cache, rather than running the process.
+     */
+    public boolean isFromCache()
+    {
+        return _cachedExitStatus != null;
+    }
+
     public Exec throwOnError()
     {
         _throwOnError = true;
@@ -493,38 +757,17 @@ public class Exec implements Runnable
         try {
             int _exitStatus = -1;
 
-            runWithoutWaiting();
-
-            if (_timeoutMillis > 0) {
-                new Thread()
-                {
-                    @Override
-                    public void run()
-                    {
-                        try {
-                            Thread.sleep(_timeoutMillis);
-                        } catch (Exception e) {
-                        }
-                        if (_state == Exec.State.RUNNING) {
-                            _state = Exec.State.TIMED_OUT;
-                            _process.destroy();
-                        }
-                    }
-                }.start();
-            }
+            if (runFromCache()) {
+                _exitStatus = _cachedExitStatus;
+            } else {
+                runWithoutWaiting();
+                scheduleTimeout();
 
-            try {
-                if (_state != State.TIMED_OUT) {
-                    _exitStatus = _process.waitFor();
-                    if (_outSinkThread != null) {
-                        _outSinkThread.join();
-                    }
-                    if (_errSinkThread != null) {
-                        _errSinkThread.join();
-                    }
+                try {
+                    _exitStatus = waitForCompletion();
+                } catch (InterruptedException e) {
+                    // Do nothing
                 }
-            } catch (InterruptedException e) {
-                // Do nothing
             }
 
             if (_throwOnError && (_exitStatus != 0)) {
@@ -546,6 +789,315 @@ public class Exec implements Runnable
 
     }
 
+    /**
+     * Runs the command without blocking. The process's output is read, and the timeout is managed, using shared
+     * threads, so running many short-lived commands does not create new threads for each command.
+     * <p>
+     * On Java 9 or later, no thread waits for the process to end; the future is completed using
+     * Process.onExit(). On Java 8, a shared thread is blocked in {@link Process#waitFor()} for each running
+     * process. Either way, reading the output still needs a thread per stream while the process is running, because
+     * the reads block.
+     * </p>
+     * <p>
+     * If {@link #throwOnError()} was called, then a non-zero exit status completes the future exceptionally with
+     * an {@link ExecException}. Cancelling the future stops the process.
+     * </p>
+     * 
+     * <pre>
+     * <code>
+     * new Exec( "ls", "/home" ).stdout().runAsync().thenAccept( result -&gt; ... );
+     * </code>
+     * </pre>
+     * 
+     * @return A future, which is completed when the process has ended, and all of its output has been read.
+     */
+    public CompletableFuture<ExecResult> runAsync()
+    {
+        final CompletableFuture<ExecResult> future = new CompletableFuture<ExecResult>()
+        {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning)
+            {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled) {
+                    Exec.this.stop();
+                }
+                return cancelled;
+            }
+        };
+
+        try {
+            if (runFromCache()) {
+                _state = State.COMPLETED;
+                if (_throwOnError && (_cachedExitStatus != 0)) {
+                    future.completeExceptionally(new ExecException(this, "Non zero return value"));
+                } else {
+                    future.complete(new ExecResult(this, _cachedExitStatus, _state));
+                }
+                return future;
+            }
+            runWithoutWaiting();
+        } catch (Exception e) {
+            _state = State.COMPLETED;
+            future.completeExceptionally(new ExecException(this, e));
+            return future;
+        }
+        scheduleTimeout();
+
+        Runnable complete = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    int exitStatus = waitForCompletion();
+                    if (_state != State.TIMED_OUT) {
+                        _state = State.COMPLETED;
+                    }
+                    if (_throwOnError && (exitStatus != 0)) {
+                        future.completeExceptionally(new ExecException(Exec.this, "Non zero return value"));
+                    } else {
+                        future.complete(new ExecResult(Exec.this, exitStatus, _state));
+                    }
+                } catch (Exception e) {
+                    future.completeExceptionally(new ExecException(Exec.this, e));
+                }
+            }
+        };
+
+        CompletableFuture<Void> exited = onExit();
+        if (exited == null) {
+            PUMPS.execute(complete);
+        } else {
+            // The processes have ended, so waitForCompletion only waits for the rest of the output to be read.
+            exited.thenRunAsync(complete, PUMPS);
+        }
+
+        return future;
+    }
+
+    /**
+     * @return A future which completes when this process, and the rest of its pipeline, have ended, or null if
+     *         Process.onExit() isn't available (before Java 9).
+     */
+    private CompletableFuture<Void> onExit()
+    {
+        if (ON_EXIT == null) {
+            return null;
+        }
+        List<CompletableFuture<?>> futures = new ArrayList<CompletableFuture<?>>();
+        try {
+            for (Exec exec = this; exec != null; exec = exec._pipedTo) {
+                futures.add((CompletableFuture<?>) ON_EXIT.invoke(exec._process));
+            }
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            return null;
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]));
+    }
+
+    /**
+     * If a timeout has been set, kills the process if it is still running when the time is up.
+     * The timeout is cancelled by {@link #waitForCompletion()}, so no threads are left waiting.
+     */
+    private void scheduleTimeout()
+    {
+        if (_timeoutMillis > 0) {
+            _timeoutFuture = TIMER.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (_state == Exec.State.RUNNING) {
+                        _state = Exec.State.TIMED_OUT;
+                        stop();
+                    }
+                }
+            }, _timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Waits for the process to end, and for all of its output to be read by the Sinks.
+     * If the process is the start of a pipeline, then the rest of the pipeline is waited for too.
+     * 
+     * @return The exit status of the process
+     * @throws InterruptedException
+     */
+    int waitForCompletion() throws InterruptedException
+    {
+        try {
+            int exitStatus = _process.waitFor();
+            join(_outSinkFuture);
+            join(_errSinkFuture);
+            if (_inSource instanceof StreamingSource) {
+                ((StreamingSource) _inSource).join();
+            }
+            finished();
+            if ((_outCopy != null) && (_state == State.COMPLETED) && !_stopped && (_copyRemaining.get() >= 0)) {
+                _cachePolicy.put(_cacheKey, exitStatus, _outCopy.toByteArray(), _errCopy.toByteArray());
+            }
+            _outCopy = null;
+            _errCopy = null;
+            if (_pipedTo != null) {
+                _pipedTo.waitForCompletion();
+            }
+            return exitStatus;
+        } finally {
+            if (_timeoutFuture != null) {
+                _timeoutFuture.cancel(false);
+            }
+        }
+    }
+
+    private void finished()
+    {
+        if (_state != State.TIMED_OUT) {
+            _state = State.COMPLETED;
+        }
+        _stats.finished(_outSink, _errSink);
+        fireEvent(false);
+    }
+
+    private void fireEvent(boolean started)
+    {
+        List<ExecListener> listeners = new ArrayList<ExecListener>(globalListeners);
+        if (_listeners != null) {
+            listeners.addAll(_listeners);
+        }
+        for (ExecListener listener : listeners) {
+            try {
+                if (started) {
+                    listener.started(this);
+                } else {
+                    listener.finished(this);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * If a CachePolicy is in use, and it has a stored result for this command, then passes the stored output to
+     * the Sinks. Otherwise, prepares to keep a copy of the output, for the CachePolicy to store.
+     * 
+     * @return true if the result was taken from the cache.
+     * @throws IOException
+     */
+    private boolean runFromCache() throws IOException
+    {
+        _cachedExitStatus = null;
+        _stopped = false;
+        if (_cachePolicy == null) {
+            return false;
+        }
+        _cacheKey = cacheKey();
+        if (_cacheKey == null) {
+            return false;
+        }
+
+        CachePolicy.Entry entry = _cachePolicy.get(_cacheKey);
+        if (entry == null) {
+            _outCopy = new ByteArrayOutputStream();
+            _errCopy = new ByteArrayOutputStream();
+            _copyRemaining = new AtomicLong(_cachePolicy.getMaxEntryBytes());
+            return false;
+        }
+
+        replay(_outSink, entry.stdout);
+        if (!_mergeStderr) {
+            replay(_errSink, entry.stderr);
+        }
+        endUnread(true, !_mergeStderr);
+        _cachedExitStatus = entry.exitStatus;
+        return true;
+    }
+
+    private static void replay(Sink sink, byte[] output)
+    {
+        if (sink != null) {
+            sink.setStream(new ByteArrayInputStream(output));
+            sink.run();
+        }
+    }
+
+    /**
+     * @return A hash of everything which affects the output of the command, or null if the input can't be known
+     *         in advance.
+     * @throws IOException
+     */
+    private String cacheKey() throws IOException
+    {
+        if (_outSink instanceof Pipe) {
+            return null;
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+        for (String argument : _commandArray) {
+            update(digest, "arg", argument);
+        }
+        if (_clearEnv) {
+            update(digest, "clearEnv", "");
+        }
+        if (_env != null) {
+            for (Map.Entry<String, String> entry : new TreeMap<String, String>(_env).entrySet()) {
+                update(digest, entry.getValue() == null ? "unset" : "var", entry.getKey());
+                update(digest, "value", String.valueOf(entry.getValue()));
+            }
+        }
+        File directory = (_workingDirectory == null) ? new File(".") : _workingDirectory;
+        update(digest, "dir", directory.getAbsolutePath());
+        update(digest, "mergeStderr", String.valueOf(_mergeStderr));
+
+        if ((_inSource instanceof InputStreamSource) && (((InputStreamSource) _inSource).getBytes() != null)) {
+            digest.update(((InputStreamSource) _inSource).getBytes());
+        } else if (_inSource instanceof FileSource) {
+            InputStream in = new FileInputStream(((FileSource) _inSource).getFile());
+            byte[] buffer = BufferPool.getDefault().acquireBytes();
+            try {
+                int len;
+                while ((len = in.read(buffer, 0, buffer.length)) != -1) {
+                    digest.update(buffer, 0, len);
+                }
+            } finally {
+                BufferPool.getDefault().release(buffer);
+                in.close();
+            }
+        } else if (!(_inSource instanceof NullSource)) {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    private static void update(MessageDigest digest, String label, String value)
+    {
+        byte[] bytes = (label + "=" + value).getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    private static void join(Future<?> sinkFuture) throws InterruptedException
+    {
+        if (sinkFuture != null) {
+            try {
+                sinkFuture.get();
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            }
+        }
+    }
+
     /**
      * Runs the command, without waiting for it to finish.
      * 
@@ -553,45 +1105,298 @@ public class Exec implements Runnable
      * @throws IOException
      */
     public Process runWithoutWaiting() throws IOException
+    {
+        long startNanos = System.nanoTime();
+        try {
+            if ((START_PIPELINE != null) && isPipedDirectly()) {
+                return startPipeline(startNanos);
+            }
+
+            started(createProcessBuilder().start(), true, true, startNanos);
+
+        } catch (IOException | RuntimeException e) {
+            // Nothing will be read, so don't leave consumers waiting (here, or further along a pipeline).
+            for (Exec exec = this; exec != null; exec = (exec._outSink instanceof Pipe)
+                ? ((Pipe) exec._outSink).getTarget() : null) {
+                if (exec._process == null) {
+                    exec.endUnread(false, false);
+                }
+            }
+            throw e;
+        }
+
+        return _process;
+    }
+
+    /**
+     * Tells the {@link OutputEvents} (if any) about the streams which won't be read by its sinks, and adds
+     * {@link LineSink#END_OF_OUTPUT} to the queues of LineSinks which won't be run.
+     * 
+     * @param stdoutRead
+     *            True if _outSink is (or has been) run.
+     * @param stderrRead
+     *            True if _errSink is (or has been) run.
+     */
+    private void endUnread(boolean stdoutRead, boolean stderrRead)
+    {
+        if (!stdoutRead) {
+            endLines(_outSink);
+        }
+        if (!stderrRead) {
+            endLines(_errSink);
+        }
+        if (_events != null) {
+            if (!stdoutRead || (_outSink != _events.getStdoutSink())) {
+                _events.end(OutputEvent.Stream.STDOUT);
+            }
+            if (!stderrRead || (_errSink != _events.getStderrSink())) {
+                _events.end(OutputEvent.Stream.STDERR);
+            }
+        }
+    }
+
+    private static void endLines(final Sink sink)
+    {
+        if (sink instanceof LineSink) {
+            // On a pump thread, because a full queue would hold up the caller.
+            PUMPS.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    ((LineSink) sink).end();
+                }
+            });
+        }
+    }
+
+    private ProcessBuilder createProcessBuilder()
     {
         ProcessBuilder processBuilder = new ProcessBuilder(getCommandArray());
-        if (_env != null) {
-            processBuilder.environment().putAll(_env);
+        if ((_env != null) || _clearEnv) {
+            applyEnvironment(processBuilder.environment());
         }
         if (_workingDirectory != null) {
             processBuilder.directory(_workingDirectory);
         }
         processBuilder.redirectErrorStream(_mergeStderr);
 
-        _process = processBuilder.start();
+        if (isDirect(_inSource)) {
+            processBuilder.redirectInput(((FileSource) _inSource).getRedirect());
+        }
+        if (isDirect(_outSink) && (_outCopy == null)) {
+            processBuilder.redirectOutput(((FileSink) _outSink).getRedirect());
+        }
+        if (!_mergeStderr && isDirect(_errSink) && (_outCopy == null)) {
+            processBuilder.redirectError(((FileSink) _errSink).getRedirect());
+        }
+
+        return processBuilder;
+    }
+
+    private void applyEnvironment(Map<String, String> env)
+    {
+        if (_clearEnv) {
+            env.clear();
+        }
+        if (_env != null) {
+            for (Map.Entry<String, String> entry : _env.entrySet()) {
+                if (entry.getValue() == null) {
+                    env.remove(entry.getKey());
+                } else {
+                    env.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Can the operating system write the output directly, rather than copying it through the JVM?
+     * True for a plain {@link FileSink}, but not sub-classes, which may want to see the data.
+     */
+    private static boolean isDirect(Sink sink)
+    {
+        return (sink != null) && (sink.getClass() == FileSink.class);
+    }
+
+    /**
+     * Can the operating system read the input directly, rather than copying it through the JVM?
+     * True for a plain {@link FileSource}, but not sub-classes.
+     */
+    private static boolean isDirect(Source source)
+    {
+        return (source != null) && (source.getClass() == FileSource.class);
+    }
+
+    /**
+     * Connects the Source and Sinks to the newly started process.
+     * 
+     * @param process
+     * @param readStdout
+     *            False if stdout is connected directly to the next process in a pipeline.
+     * @param writeStdin
+     *            False if stdin is connected directly to the previous process in a pipeline.
+     * @param startNanos
+     *            The value of System.nanoTime() before the process was started.
+     */
+    private void started(Process process, boolean readStdout, boolean writeStdin, long startNanos)
+    {
+        // _stats is assigned first, so that stop() never sees a process without stats.
+        _stats = new ExecStats(process, startNanos);
+        _process = process;
         _state = State.RUNNING;
 
-        if (_outSink != null) {
-            _outSink.setStream(_process.getInputStream());
-            _outSinkThread = new Thread(_outSink);
-            _outSinkThread.start();
+        boolean pumpStdout = readStdout && (_outSink != null) && (!isDirect(_outSink) || (_outCopy != null));
+        boolean pumpStderr = !_mergeStderr && (!isDirect(_errSink) || (_errCopy != null));
+        if (pumpStdout) {
+            _outSink.setStream(_stats.countStdout(copy(_process.getInputStream(), _outCopy)));
+            _outSinkFuture = PUMPS.submit(_outSink);
+        }
+        if (pumpStderr) {
+            _errSink.setStream(_stats.countStderr(copy(_process.getErrorStream(), _errCopy)));
+            _errSinkFuture = PUMPS.submit(_errSink);
+        }
+        endUnread(pumpStdout, pumpStderr);
+
+        // The output is already being read, so a Source which writes synchronously can't stall the process.
+        if (writeStdin && !isDirect(_inSource)) {
+            _inSource.setStream(_stats.countStdin(_process.getOutputStream()));
         }
-        _inSource.setStream(_process.getOutputStream());
 
-        if (!_mergeStderr) {
-            _errSink.setStream(_process.getErrorStream());
-            _errSinkThread = new Thread(_errSink);
-            _errSinkThread.start();
+        fireEvent(true);
+    }
+
+    private InputStream copy(InputStream in, ByteArrayOutputStream copy)
+    {
+        return (copy == null) ? in : new TeeInputStream(in, copy, _copyRemaining);
+    }
+
+    /**
+     * Is stdout sent to another Exec via a plain {@link Pipe}? If so, the processes can be connected by the
+     * operating system, rather than copying the data through this JVM. Sub-classes of Pipe may want to see the data,
+     * so they are always copied.
+     */
+    private boolean isPipedDirectly()
+    {
+        return (_outSink != null) && (_outSink.getClass() == Pipe.class);
+    }
+
+    /**
+     * Starts this process, and the processes that it is piped to, with each process's stdout connected directly
+     * to the next process's stdin by the operating system, so the data does not pass through this JVM.
+     * 
+     * @param startNanos
+     *            The value of System.nanoTime() before the processes were started.
+     * @return This Exec's process (the first process in the pipeline).
+     * @throws IOException
+     */
+    private Process startPipeline(long startNanos) throws IOException
+    {
+        List<Exec> execs = new ArrayList<Exec>();
+        List<ProcessBuilder> builders = new ArrayList<ProcessBuilder>();
+        for (Exec exec = this;; exec = ((Pipe) exec._outSink).getTarget()) {
+            execs.add(exec);
+            builders.add(exec.createProcessBuilder());
+            if (!exec.isPipedDirectly()) {
+                break;
+            }
+        }
+
+        List<?> processes;
+        try {
+            processes = (List<?>) START_PIPELINE.invoke(null, builders);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new ExecException(this, (Exception) e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new ExecException(this, e);
+        }
+
+        int last = execs.size() - 1;
+        for (int i = 0; i <= last; i++) {
+            execs.get(i).started((Process) processes.get(i), i == last, i == 0, startNanos);
+            if (i < last) {
+                execs.get(i)._pipedTo = execs.get(i + 1);
+            }
         }
 
         return _process;
     }
 
     /**
-     * Attempts to end the command by calling {@link Process#destroy()}.
+     * ProcessBuilder.startPipeline is only available from Java 9 onwards. When it isn't available,
+     * {@link Pipe}s copy the data from one process to the next.
+     */
+    private static Method findStartPipeline()
+    {
+        try {
+            return ProcessBuilder.class.getMethod("startPipeline", List.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Process.onExit is only available from Java 9 onwards. When it isn't available, {@link #runAsync()} uses a
+     * thread to wait for each process.
+     */
+    private static Method findOnExit()
+    {
+        try {
+            return Process.class.getMethod("onExit");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Attempts to end the command, and any processes it has started, by calling {@link Process#destroy()}
+     * (SIGTERM on Unix). Any which are still running after the grace period (see {@link #gracePeriod(long)}) are
+     * killed using {@link Process#destroyForcibly()} (SIGKILL on Unix).
+     * If this is the start of a pipeline, then the rest of the pipeline is stopped too.
+     * <p>
+     * Note, the processes started by the command can only be found when running on Java 9 or later.
+     * </p>
      */
     public void stop()
     {
-        _process.destroy();
+        _stopped = true;
+        Process process = _process;
+        if (process == null) {
+            return;
+        }
+
+        ExecStats stats = _stats;
+        if (stats != null) {
+            stats.sampleCpu();
+        }
+        final ProcessTree tree = new ProcessTree(process);
+        tree.destroy();
+        if (_gracePeriodMillis >= 0) {
+            TIMER.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (tree.isAlive()) {
+                        tree.destroyForcibly();
+                    }
+                }
+            }, _gracePeriodMillis, TimeUnit.MILLISECONDS);
+        }
+
+        if (_pipedTo != null) {
+            _pipedTo.stop();
+        }
     }
 
     public int getExitStatus()
     {
+        if (_cachedExitStatus != null) {
+            return _cachedExitStatus;
+        }
         try {
             return _process.waitFor();
         } catch (InterruptedException e) {
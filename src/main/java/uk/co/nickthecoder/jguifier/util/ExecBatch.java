@@ -0,0 +1,273 @@
+package uk.co.nickthecoder.jguifier.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs many {@link Exec}s, with a limit on how many run at the same time, for example, to run the same command
+ * over every file found by a {@link FileLister} :
+ * 
+ * <pre>
+ * <code>
+ * ExecBatch batch = new ExecBatch().concurrency(8);
+ * for (File file : new FileLister().extensions("png").listFiles(directory)) {
+ *     batch.add(new Exec("optipng", file.getPath()).stderr());
+ * }
+ * List&lt;ExecResult&gt; results = batch.run();
+ * </code>
+ * </pre>
+ * 
+ * The Execs are started using {@link Exec#runAsync()}, so the batch itself doesn't need a thread per Exec. On Java
+ * 9 or later, no thread waits for each process to end, but (as with any Exec) reading a process's output uses a
+ * pooled thread per stream while it runs, unless the output is redirected to a file.
+ * <p>
+ * By default, all of the Execs are run, and the results include those which failed (see
+ * {@link ExecResult#isSuccess()}). Call {@link #failFast()} to stop at the first failure instead.
+ * {@link #stop()} stops the running processes, and prevents any more from starting.
+ * </p>
+ * 
+ * @priority 4
+ */
+public class ExecBatch implements Stoppable
+{
+    private final List<Exec> _execs = new ArrayList<Exec>();
+
+    private int _concurrency = Runtime.getRuntime().availableProcessors();
+
+    private boolean _failFast = false;
+
+    private ExecResult[] _results;
+
+    private final Set<Exec> _running = new HashSet<Exec>();
+
+    private int _next;
+
+    private boolean _stopped;
+
+    /**
+     * True while {@link #startMore()} is running, so that Execs which complete immediately (such as cached results,
+     * or commands which fail to start) don't cause startMore to recurse once per Exec.
+     */
+    private boolean _starting;
+
+    private ExecResult _failure;
+
+    private CompletableFuture<List<ExecResult>> _future;
+
+    public ExecBatch()
+    {
+    }
+
+    public ExecBatch(Collection<Exec> execs)
+    {
+        _execs.addAll(execs);
+    }
+
+    public ExecBatch add(Exec exec)
+    {
+        _execs.add(exec);
+        return this;
+    }
+
+    public ExecBatch addAll(Collection<Exec> execs)
+    {
+        _execs.addAll(execs);
+        return this;
+    }
+
+    /**
+     * @param value
+     *            The maximum number of processes to run at the same time. Defaults to the number of processors.
+     * @return this
+     */
+    public ExecBatch concurrency(int value)
+    {
+        setConcurrency(value);
+        return this;
+    }
+
+    public void setConcurrency(int value)
+    {
+        if (value < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+        _concurrency = value;
+    }
+
+    public int getConcurrency()
+    {
+        return _concurrency;
+    }
+
+    /**
+     * Stop at the first failure (a non-zero exit status, a time out, or a command which could not be started).
+     * The other running processes are stopped, no more are started, and {@link #run()} throws an
+     * {@link ExecException}.
+     * 
+     * @return this
+     */
+    public ExecBatch failFast()
+    {
+        _failFast = true;
+        return this;
+    }
+
+    public void setFailFast(boolean value)
+    {
+        _failFast = value;
+    }
+
+    public boolean getFailFast()
+    {
+        return _failFast;
+    }
+
+    public List<Exec> getExecs()
+    {
+        return _execs;
+    }
+
+    /**
+     * Runs all of the Execs, waiting for them to finish.
+     * 
+     * @return The results, in the same order as the Execs were added. If the batch was stopped, then only the
+     *         results of the Execs which were started are included.
+     * @throws ExecException
+     *             If failFast was set, and one of the Execs failed.
+     */
+    public List<ExecResult> run()
+    {
+        CompletableFuture<List<ExecResult>> future = runAsync();
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            stop();
+            Thread.currentThread().interrupt();
+            return future.join();
+        } catch (ExecutionException e) {
+            throw (ExecException) e.getCause();
+        }
+    }
+
+    /**
+     * Starts the Execs, without waiting for them to finish. Cancelling the future stops the batch.
+     * 
+     * @return A future, completed with the results (as described in {@link #run()}), or completed exceptionally
+     *         with an {@link ExecException} if failFast was set, and one of the Execs failed.
+     */
+    public synchronized CompletableFuture<List<ExecResult>> runAsync()
+    {
+        _results = new ExecResult[_execs.size()];
+        _next = 0;
+        _stopped = false;
+        _failure = null;
+        _future = new CompletableFuture<List<ExecResult>>()
+        {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning)
+            {
+                ExecBatch.this.stop();
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        CompletableFuture<List<ExecResult>> future = _future;
+        startMore();
+        return future;
+    }
+
+    /**
+     * Stops the running processes, and prevents any more from being started.
+     */
+    @Override
+    public synchronized void stop()
+    {
+        _stopped = true;
+        for (Exec exec : new ArrayList<Exec>(_running)) {
+            exec.stop();
+        }
+    }
+
+    private void startMore()
+    {
+        if (_starting) {
+            // The outer call's loop picks up the free slot.
+            return;
+        }
+        _starting = true;
+        try {
+            while (!_stopped && (_running.size() < _concurrency) && (_next < _execs.size())) {
+                final int index = _next++;
+                final Exec exec = _execs.get(index);
+                _running.add(exec);
+                exec.runAsync().whenComplete(new BiConsumer<ExecResult, Throwable>()
+                {
+                    @Override
+                    public void accept(ExecResult result, Throwable throwable)
+                    {
+                        finished(index, exec, result, throwable);
+                    }
+                });
+            }
+        } finally {
+            _starting = false;
+        }
+
+        if (_running.isEmpty() && (_stopped || (_next >= _execs.size())) && !_future.isDone()) {
+            if (_failure != null) {
+                Exception cause = _failure.getException();
+                _future.completeExceptionally(cause instanceof ExecException ? cause
+                    : cause == null ? new ExecException(_failure.getExec(), "Failed : " + _failure)
+                        : new ExecException(_failure.getExec(), cause));
+            } else {
+                List<ExecResult> results = new ArrayList<ExecResult>(_next);
+                for (int i = 0; i < _next; i++) {
+                    results.add(_results[i]);
+                }
+                _future.complete(results);
+            }
+        }
+    }
+
+    private synchronized void finished(int index, Exec exec, ExecResult result, Throwable throwable)
+    {
+        if (throwable != null) {
+            Throwable cause = (throwable instanceof CompletionException) && (throwable.getCause() != null)
+                ? throwable.getCause() : throwable;
+            result = new ExecResult(exec, cause instanceof Exception ? (Exception) cause : new ExecException(exec,
+                cause.toString()));
+        }
+        _results[index] = result;
+        _running.remove(exec);
+
+        if (_failFast && (_failure == null) && !_stopped && !result.isSuccess()) {
+            _failure = result;
+            stop();
+        }
+        startMore();
+    }
+
+    /**
+     * A convenience method, which creates an Exec for each file, using the given command, with the file's path
+     * as the last argument.
+     * 
+     * @param files
+     * @param command
+     *            The command and any arguments which precede the file.
+     * @return this
+     */
+    public ExecBatch forEachFile(Collection<File> files, String... command)
+    {
+        for (File file : files) {
+            _execs.add(new Exec(command).add(file.getPath()));
+        }
+        return this;
+    }
+}
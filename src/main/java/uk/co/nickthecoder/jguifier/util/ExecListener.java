@@ -0,0 +1,26 @@
+package uk.co.nickthecoder.jguifier.util;
+
+/**
+ * Notified when an {@link Exec} starts and finishes, for example, to log how long each command took, and how much
+ * output it produced (see {@link Exec#getStats()}).
+ * Listeners can be added to a single Exec, using {@link Exec#listener(ExecListener)}, or to every Exec, using
+ * {@link Exec#addGlobalListener(ExecListener)}.
+ * <p>
+ * The methods may be called from any thread, so they should return quickly, and must be thread safe.
+ * </p>
+ * 
+ * @priority 4
+ */
+public interface ExecListener
+{
+    /**
+     * Called once the process has been started.
+     */
+    public void started(Exec exec);
+
+    /**
+     * Called once the process has ended, and all of its output has been read.
+     * The statistics are complete, and available from {@link Exec#getStats()}.
+     */
+    public void finished(Exec exec);
+}
@@ -0,0 +1,104 @@
+package uk.co.nickthecoder.jguifier.util;
+
+/**
+ * The outcome of an {@link Exec}, returned (via a Future) by {@link Exec#runAsync()}.
+ * 
+ * @priority 4
+ */
+public class ExecResult
+{
+    private final Exec _exec;
+
+    private final int _exitStatus;
+
+    private final Exec.State _state;
+
+    private final Exception _exception;
+
+    public ExecResult(Exec exec, int exitStatus, Exec.State state)
+    {
+        _exec = exec;
+        _exitStatus = exitStatus;
+        _state = state;
+        _exception = null;
+    }
+
+    /**
+     * The result of an Exec which failed, for example, because the command could not be started.
+     * The exit status is -1.
+     */
+    public ExecResult(Exec exec, Exception exception)
+    {
+        _exec = exec;
+        _exitStatus = -1;
+        _state = Exec.State.COMPLETED;
+        _exception = exception;
+    }
+
+    public Exec getExec()
+    {
+        return _exec;
+    }
+
+    /**
+     * @return The exit status of the process. If the process timed out, this is the status of the killed process.
+     */
+    public int getExitStatus()
+    {
+        return _exitStatus;
+    }
+
+    /**
+     * @return Either {@link Exec.State#COMPLETED} or {@link Exec.State#TIMED_OUT}.
+     */
+    public Exec.State getState()
+    {
+        return _state;
+    }
+
+    public boolean isTimedOut()
+    {
+        return _state == Exec.State.TIMED_OUT;
+    }
+
+    /**
+     * @return The reason that the Exec failed, or null if it ran (whatever its exit status).
+     */
+    public Exception getException()
+    {
+        return _exception;
+    }
+
+    /**
+     * @return true if the process ran to completion, with an exit status of zero.
+     */
+    public boolean isSuccess()
+    {
+        return (_exception == null) && (_state == Exec.State.COMPLETED) && (_exitStatus == 0);
+    }
+
+    /**
+     * @return The Sink for stdout, the same as {@link Exec#getStdout()}.
+     */
+    public Sink getStdout()
+    {
+        return _exec.getStdout();
+    }
+
+    /**
+     * @return The Sink for stderr, the same as {@link Exec#getStderr()}.
+     */
+    public Sink getStderr()
+    {
+        return _exec.getStderr();
+    }
+
+    @Override
+    public String toString()
+    {
+        if (_exception != null) {
+            return "ExecResult failed " + _exception;
+        }
+        return "ExecResult " + _state + " exit status " + _exitStatus;
+    }
+}
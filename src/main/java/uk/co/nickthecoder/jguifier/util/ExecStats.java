@@ -0,0 +1,264 @@
+package uk.co.nickthecoder.jguifier.util;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measurements of a single {@link Exec}: how long it took to start the process and to run it, how much data
+ * passed through stdin, stdout and stderr, and how much of the output was kept in memory.
+ * Available from {@link Exec#getStats()} once the Exec has been started, and complete when the Exec has
+ * finished (see {@link ExecListener#finished(Exec)}).
+ * <p>
+ * Data which is redirected by the operating system (for example, to a {@link FileSink}), or piped directly to
+ * another process, doesn't pass through this JVM, and so isn't counted.
+ * </p>
+ * 
+ * @priority 4
+ */
+public class ExecStats
+{
+    private static final Method TO_HANDLE;
+    private static final Method INFO;
+    private static final Method TOTAL_CPU_DURATION;
+
+    static {
+        Method toHandle = null;
+        Method info = null;
+        Method totalCpuDuration = null;
+        try {
+            toHandle = Process.class.getMethod("toHandle");
+            info = Class.forName("java.lang.ProcessHandle").getMethod("info");
+            totalCpuDuration = Class.forName("java.lang.ProcessHandle$Info").getMethod("totalCpuDuration");
+        } catch (Exception e) {
+            toHandle = null;
+        }
+        TO_HANDLE = toHandle;
+        INFO = info;
+        TOTAL_CPU_DURATION = totalCpuDuration;
+    }
+
+    private final Process _process;
+
+    private final long _startTime;
+
+    private final long _startNanos;
+
+    private final long _spawnNanos;
+
+    private volatile long _wallNanos = -1;
+
+    private volatile long _cpuNanos = -1;
+
+    private final AtomicLong _stdinBytes = new AtomicLong();
+
+    private final AtomicLong _stdoutBytes = new AtomicLong();
+
+    private final AtomicLong _stderrBytes = new AtomicLong();
+
+    private long _stdoutBuffered;
+
+    private long _stderrBuffered;
+
+    ExecStats(Process process, long startNanos)
+    {
+        _process = process;
+        _startNanos = startNanos;
+        _spawnNanos = System.nanoTime() - startNanos;
+        _startTime = System.currentTimeMillis() - _spawnNanos / 1000000;
+    }
+
+    /**
+     * @return The time the Exec was started, in milliseconds since the epoch.
+     */
+    public long getStartTime()
+    {
+        return _startTime;
+    }
+
+    /**
+     * @return The time taken to start the process (fork/exec), in nanoseconds.
+     */
+    public long getSpawnNanos()
+    {
+        return _spawnNanos;
+    }
+
+    /**
+     * @return The time from starting the process, to the process ending and all of its output having been read,
+     *         in nanoseconds, or -1 if the Exec hasn't finished.
+     */
+    public long getWallNanos()
+    {
+        return _wallNanos;
+    }
+
+    /**
+     * @return The CPU time used by the process, in nanoseconds, or -1 if unknown.
+     *         Only available when running on Java 9 or later, and on operating systems which support it. The time
+     *         is sampled when the process's output ends, or it is stopped, so may be slightly low.
+     */
+    public long getCpuNanos()
+    {
+        return _cpuNanos;
+    }
+
+    public long getStdinBytes()
+    {
+        return _stdinBytes.get();
+    }
+
+    public long getStdoutBytes()
+    {
+        return _stdoutBytes.get();
+    }
+
+    public long getStderrBytes()
+    {
+        return _stderrBytes.get();
+    }
+
+    /**
+     * @return The memory used by stdout's Sink to hold the output, if it is a {@link BufferingSink}, otherwise 0.
+     *         The buffering sinks never shrink, so this is also the peak.
+     */
+    public long getStdoutBuffered()
+    {
+        return _stdoutBuffered;
+    }
+
+    /**
+     * @return The memory used by stderr's Sink to hold the output, if it is a {@link BufferingSink}, otherwise 0.
+     */
+    public long getStderrBuffered()
+    {
+        return _stderrBuffered;
+    }
+
+    InputStream countStdout(InputStream in)
+    {
+        return new CountingInputStream(in, _stdoutBytes);
+    }
+
+    InputStream countStderr(InputStream in)
+    {
+        return new CountingInputStream(in, _stderrBytes);
+    }
+
+    OutputStream countStdin(OutputStream out)
+    {
+        return new CountingOutputStream(out, _stdinBytes);
+    }
+
+    /**
+     * Records the CPU time, while the process still exists (once it has ended, and been waited for, its CPU time
+     * is no longer available).
+     */
+    void sampleCpu()
+    {
+        if (TO_HANDLE == null) {
+            return;
+        }
+        try {
+            Object info = INFO.invoke(TO_HANDLE.invoke(_process));
+            Optional<?> cpu = (Optional<?>) TOTAL_CPU_DURATION.invoke(info);
+            if (cpu.isPresent()) {
+                _cpuNanos = Math.max(_cpuNanos, ((Duration) cpu.get()).toNanos());
+            }
+        } catch (Exception e) {
+            // Do nothing
+        }
+    }
+
+    void finished(Sink outSink, Sink errSink)
+    {
+        _wallNanos = System.nanoTime() - _startNanos;
+        _stdoutBuffered = (outSink instanceof BufferingSink) ? ((BufferingSink) outSink).getBufferedBytes() : 0;
+        _stderrBuffered = (errSink instanceof BufferingSink) ? ((BufferingSink) errSink).getBufferedBytes() : 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "spawn " + (_spawnNanos / 1000) + "us" +
+            " wall " + (_wallNanos / 1000) + "us" +
+            " cpu " + (_cpuNanos < 0 ? "?" : (_cpuNanos / 1000) + "us") +
+            " stdin " + getStdinBytes() +
+            " stdout " + getStdoutBytes() + " (" + _stdoutBuffered + " buffered)" +
+            " stderr " + getStderrBytes() + " (" + _stderrBuffered + " buffered)";
+    }
+
+    private class CountingInputStream extends FilterInputStream
+    {
+        private final AtomicLong _count;
+
+        CountingInputStream(InputStream in, AtomicLong count)
+        {
+            super(in);
+            _count = count;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if (b == -1) {
+                sampleCpu();
+            } else {
+                _count.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int len) throws IOException
+        {
+            int amount = super.read(buffer, offset, len);
+            if (amount == -1) {
+                sampleCpu();
+            } else {
+                _count.addAndGet(amount);
+            }
+            return amount;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long amount = super.skip(n);
+            _count.addAndGet(amount);
+            return amount;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream
+    {
+        private final AtomicLong _count;
+
+        CountingOutputStream(OutputStream out, AtomicLong count)
+        {
+            super(out);
+            _count = count;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            out.write(b);
+            _count.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int len) throws IOException
+        {
+            out.write(buffer, offset, len);
+            _count.addAndGet(len);
+        }
+    }
+}
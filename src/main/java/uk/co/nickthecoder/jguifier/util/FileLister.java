@@ -5,13 +5,31 @@ import java.io.FileFilter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Lists the contents of a directory. Does much more than {@link File#list()}!
@@ -28,7 +46,15 @@ public class FileLister
         @Override
         public int compare(File a, File b)
         {
-            return a.getPath().toLowerCase().compareTo(b.getPath().toLowerCase());
+            return foldedPath(a).compareTo(foldedPath(b));
+        }
+
+        private String foldedPath(File file)
+        {
+            if (file instanceof SortableFile) {
+                return ((SortableFile) file).getFoldedPath();
+            }
+            return file.getPath().toLowerCase();
         }
 
     };
@@ -169,8 +195,30 @@ public class FileLister
 
     private PrintWriter _errors = new PrintWriter(_errorWriter);
 
-    private boolean stopping = false;
-    
+    /**
+     * If true, the file attributes of each entry are read once, and reused when filtering and sorting.
+     * 
+     * @see AttributedFile
+     */
+    private boolean _cacheAttributes = false;
+
+    /**
+     * The maximum number of results, or 0 for no limit.
+     */
+    private int _limit = 0;
+
+    /**
+     * If not null, unchanged directories are listed from the index, rather than being read again.
+     */
+    private DirectoryIndex _index = null;
+
+    /**
+     * The number of threads used to walk the tree. 0 or 1 lists the directories serially on the calling thread.
+     */
+    private int _parallelism = 0;
+
+    private volatile boolean stopping = false;
+
     /**
      * Constructor
      */
@@ -314,6 +362,139 @@ public class FileLister
         return _depth;
     }
 
+    /**
+     * Sub-directories are listed concurrently using a {@link ForkJoinPool} with the given number of threads.
+     * A fluent version of {@link #setParallelism(int)}.
+     * 
+     * @param threads
+     * @return this
+     */
+    public FileLister parallel(int threads)
+    {
+        setParallelism(threads);
+        return this;
+    }
+
+    /**
+     * The number of threads used to list sub-directories concurrently. The results (and their order) are the
+     * same as a serial listing, so this only affects the speed of deep trees, especially on slow (networked)
+     * file systems.
+     * 
+     * @param threads
+     *            0 or 1 for a serial listing (the default), or more than one to walk the tree in parallel.
+     */
+    public void setParallelism(int threads)
+    {
+        _parallelism = threads;
+    }
+
+    public int getParallelism()
+    {
+        return _parallelism;
+    }
+
+    /**
+     * Reads each directory using NIO, reading the attributes of each entry only once.
+     * A fluent version of {@link #setCacheAttributes(boolean)}.
+     * 
+     * @return this
+     */
+    public FileLister cacheAttributes()
+    {
+        setCacheAttributes(true);
+        return this;
+    }
+
+    /**
+     * If true, each directory is read using {@link Files#newDirectoryStream(Path)}, and the {@link BasicFileAttributes}
+     * of each entry are read once. The results are {@link AttributedFile}s, whose {@link File#isDirectory()},
+     * {@link File#length()} and {@link File#lastModified()} etc. use the cached attributes, so filtering and
+     * sorting (including {@link #SIZE_ORDER} and {@link #LAST_MODIFIED_ORDER}) don't touch the file system again.
+     * Note that the cached values reflect the state of each file at the time it was listed.
+     * 
+     * @param value
+     */
+    public void setCacheAttributes(boolean value)
+    {
+        _cacheAttributes = value;
+    }
+
+    public boolean getCacheAttributes()
+    {
+        return _cacheAttributes;
+    }
+
+    /**
+     * Limits the number of results. A fluent version of {@link #setLimit(int)}.
+     * 
+     * @param value
+     * @return this
+     */
+    public FileLister limit(int value)
+    {
+        setLimit(value);
+        return this;
+    }
+
+    /**
+     * Limits the number of results. When combined with {@link #sortTogether()}, the results are the same as sorting
+     * all of the files, and then keeping the first few. For example, to find the 50 most recently modified files :
+     * 
+     * <pre>
+     * <code>
+     * new FileLister().depth(10).order(FileLister.LAST_MODIFIED_ORDER).reverse().sortTogether().limit(50)
+     * </code>
+     * </pre>
+     * 
+     * This is much cheaper than sorting every file, as only <code>value</code> files are held in memory during a
+     * serial walk. Otherwise, the walk ends as soon as enough files have been found.
+     * 
+     * @param value
+     *            The maximum number of files in the results, or 0 for no limit (the default).
+     */
+    public void setLimit(int value)
+    {
+        _limit = value;
+    }
+
+    public int getLimit()
+    {
+        return _limit;
+    }
+
+    /**
+     * Uses a persistent index, so that directories which haven't changed since they were last listed are not
+     * read again. A fluent version of {@link #setIndex(DirectoryIndex)}.
+     * 
+     * @param index
+     * @return this
+     */
+    public FileLister index(DirectoryIndex index)
+    {
+        setIndex(index);
+        return this;
+    }
+
+    /**
+     * When listing the same large trees repeatedly, an index can save a lot of time, because directories which
+     * haven't changed are listed from the index. The results are the same as without an index.
+     * The index is saved at the end of each listing (or when a lazy {@link #iterator(File)} is exhausted).
+     * The index can be combined with {@link #cacheAttributes()}, in which case the index saves reading unchanged
+     * directories, and the attributes of each entry are then read once, rather than each time they are needed.
+     * 
+     * @param index
+     *            The index, or null (the default) to always read directories from the file system.
+     */
+    public void setIndex(DirectoryIndex index)
+    {
+        _index = index;
+    }
+
+    public DirectoryIndex getIndex()
+    {
+        return _index;
+    }
+
     /**
      * Canonical files will be returned in the listing. Note that finding canonical names can cause an
      * exception to be thrown, which will cause the listing to be aborted. If you wish to handle these kind of errors
@@ -648,7 +829,35 @@ public class FileLister
     public List<File> listFiles(File directory)
     {
         stopping = false;
-        
+
+        // When sorting everything together, the limit is applied after sorting, otherwise it's applied as we go.
+        int limit = (_sort == Sort.ALL) ? 0 : _limit;
+        Iterator<File> files;
+        if (_parallelism > 1) {
+            files = listParallel(directory).iterator();
+        } else {
+            files = new FileIterator(directory, _includeBase, limit);
+        }
+
+        List<File> results;
+        if ((_sort == Sort.ALL) && (_limit > 0)) {
+            results = first(files, _limit, _order);
+        } else {
+            results = new ArrayList<File>();
+            while (files.hasNext() && ((limit <= 0) || (results.size() < limit))) {
+                results.add(files.next());
+            }
+            if (_sort == Sort.ALL) {
+                sort(results, _order);
+            }
+        }
+        saveIndex();
+
+        return results;
+    }
+
+    private List<File> listParallel(File directory)
+    {
         List<File> results = new ArrayList<File>();
 
         if (_includeBase) {
@@ -656,72 +865,494 @@ public class FileLister
         }
 
         if (_depth > 0) {
-            listFiles(results, directory, 1);
+            ForkJoinPool pool = new ForkJoinPool(_parallelism);
+            try {
+                results.addAll(pool.invoke(new DirectoryTask(directory, 1, compileFilter())));
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        return results;
+    }
+
+    private void saveIndex()
+    {
+        if (_index != null) {
+            try {
+                _index.save();
+            } catch (IOException e) {
+                _errors.println("Failed to save index " + _index.getFile() + " : " + e);
+            }
         }
+    }
 
+    /**
+     * Lists the directory lazily, reading each directory only when the previous entries have been consumed.
+     * This is useful for very large trees, because the results are not held in memory, and processing can begin
+     * before the whole tree has been read. The listing can be abandoned at any time (or by calling {@link #stop()}).
+     * <p>
+     * The order is the same as {@link #listFiles(File)}, except for {@link Sort#ALL}, which cannot be sorted lazily,
+     * and therefore lists the whole tree before returning the first item.
+     * The walk is always serial, regardless of {@link #parallel(int)}.
+     * </p>
+     * 
+     * @param directory
+     *            The directory to be listed.
+     * @return An iterator of files meeting all of the filtering criteria.
+     */
+    public Iterator<File> iterator(File directory)
+    {
         if (_sort == Sort.ALL) {
-            Collections.sort(results, _order);
+            return listFiles(directory).iterator();
+        }
+        stopping = false;
+        return new FileIterator(directory, _includeBase, _limit);
+    }
+
+    /**
+     * A lazy listing of the directory as a (sequential) Stream. See {@link #iterator(File)} for details.
+     * 
+     * @param directory
+     *            The directory to be listed.
+     * @return A stream of files meeting all of the filtering criteria.
+     */
+    public Stream<File> stream(File directory)
+    {
+        return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(iterator(directory), Spliterator.ORDERED | Spliterator.NONNULL),
+            false);
+    }
+
+    /**
+     * Walks the tree depth first, holding a {@link Frame} for each directory being listed, so the memory used is
+     * proportional to the depth of the tree (and the size of the directories), not the number of results.
+     */
+    private class FileIterator implements Iterator<File>
+    {
+        private final Deque<Frame> _stack = new ArrayDeque<Frame>();
+
+        private final FileFilter _filter = compileFilter();
+
+        private final int _limit;
+
+        private int _count = 0;
+
+        private File _next;
+
+        FileIterator(File directory, boolean includeBase, int limit)
+        {
+            _limit = limit;
+            if (includeBase) {
+                _next = directory;
+            }
+            if (_depth > 0) {
+                push(directory, 1);
+            }
+            if (_next == null) {
+                _next = findNext();
+            }
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return _next != null;
+        }
+
+        @Override
+        public File next()
+        {
+            if (_next == null) {
+                throw new NoSuchElementException();
+            }
+            File result = _next;
+            _count++;
+            if ((_limit > 0) && (_count >= _limit)) {
+                _next = null;
+                saveIndex();
+            } else {
+                _next = findNext();
+            }
+            return result;
+        }
+
+        private File findNext()
+        {
+            File next = findNextFile();
+            if (next == null) {
+                saveIndex();
+            }
+            return next;
+        }
+
+        private File findNextFile()
+        {
+            while (!_stack.isEmpty()) {
+                if (stopping) {
+                    _stack.clear();
+                    return null;
+                }
+
+                Frame frame = _stack.peek();
+                if (frame.fileIndex < frame.files.length) {
+                    File file = frame.files[frame.fileIndex++];
+                    if (_canonical) {
+                        try {
+                            file = file.getCanonicalFile();
+                        } catch (Exception e) {
+                            _errors.println(e);
+                        }
+                    }
+                    if ((frame.depth < _depth) && _includeDirectories && file.isDirectory()) {
+                        push(file, frame.depth + 1);
+                    }
+                    return file;
+                }
+
+                if ((frame.subDirs != null) && (frame.subDirIndex < frame.subDirs.length)) {
+                    push(frame.subDirs[frame.subDirIndex++], frame.depth + 1);
+                } else {
+                    _stack.pop();
+                }
+            }
+            return null;
+        }
+
+        private void push(File directory, int depth)
+        {
+            File[] children = readDirectory(directory);
+            if (children == null) {
+                _errors.println("Failed to list directory " + directory);
+                return;
+            }
+
+            Frame frame = new Frame();
+            frame.depth = depth;
+            frame.files = filter(children, _filter);
+            if (_sort == Sort.DIRECTORY) {
+                sort(frame.files, _order);
+            }
+
+            if (depth < _depth && (!_includeDirectories)) {
+                frame.subDirs = filter(children, _subDirectoryFilter);
+                if (_sort == Sort.DIRECTORY) {
+                    sort(frame.subDirs, _order);
+                }
+            }
+            _stack.push(frame);
         }
-        return results;
     }
 
     /**
-     * Lists a directory, appending the results to the 'results' list.
-     * When recursing a tree, this will be called recursively for each directory being scanned.
+     * The state of a single directory within {@link FileIterator}.
+     * The files are listed first, then, if directories aren't included in the results, each of the
+     * sub-directories is entered in turn.
+     */
+    private static class Frame
+    {
+        int depth;
+
+        File[] files;
+
+        int fileIndex;
+
+        File[] subDirs;
+
+        int subDirIndex;
+    }
+
+    /**
+     * Watches the directory for changes, notifying the listener whenever a file meeting the filtering criteria is
+     * added, removed or modified. Unlike re-listing the tree, the cost is proportional to the number of changes.
+     * The watcher runs on its own (daemon) thread until {@link FileWatcher#stop()} is called.
      * 
-     * @param results
-     *            List where the results are stored
      * @param directory
-     *            The (sub) directory being scanned
-     * @param depth
-     *            The depth of the tree search (decremented for each level of recursion).
+     *            The directory to be watched
+     * @param listener
+     *            Notified of each change
+     * @return The watcher, whose {@link FileWatcher#getFiles()} holds the current set of matching files.
      * @throws IOException
+     *             If the directory cannot be watched.
+     */
+    public FileWatcher watch(File directory, FileWatchListener listener)
+        throws IOException
+    {
+        FileWatcher watcher = new FileWatcher(this, directory, listener);
+        Thread thread = new Thread(watcher, "FileWatcher " + directory);
+        thread.setDaemon(true);
+        thread.start();
+        return watcher;
+    }
+
+    /**
+     * Is the directory entered when walking the tree? When directories are included in the results, any
+     * directory accepted by the filter is entered, otherwise {@link SubDirectoryFilter} decides.
+     */
+    boolean entersDirectory(File directory, FileFilter filter)
+    {
+        if (_includeDirectories) {
+            return directory.isDirectory() && filter.accept(directory);
+        } else {
+            return _subDirectoryFilter.accept(directory);
+        }
+    }
+
+    /**
+     * Finds the first few files, as if all of the files were sorted, and then the list truncated.
+     * Only <code>limit</code> files are held in memory at any time, so this is much cheaper than sorting all of
+     * the files when limit is small. Files which compare as equal remain in their original order (in the same way as
+     * {@link #sort(List, Comparator)}).
+     * 
+     * @param files
+     *            The files to choose from
+     * @param limit
+     *            The maximum number of files to return
+     * @param order
+     *            How the files should be ordered
+     * @return The first <code>limit</code> files, in order.
+     */
+    public static List<File> first(Iterator<File> files, int limit, final Comparator<File> order)
+    {
+        // Ranks the files by their order, and then by the order they arrived in.
+        Comparator<Ranked> ranking = new Comparator<Ranked>()
+        {
+            @Override
+            public int compare(Ranked a, Ranked b)
+            {
+                int result = order.compare(a.file, b.file);
+                if (result == 0) {
+                    return Long.compare(a.index, b.index);
+                }
+                return result;
+            }
+        };
+
+        // The head of the heap is the last (worst ranked) of the files so far.
+        PriorityQueue<Ranked> heap = new PriorityQueue<Ranked>(limit + 1, Collections.reverseOrder(ranking));
+        long index = 0;
+        while (files.hasNext()) {
+            Ranked ranked = new Ranked(new SortableFile(files.next()), index++);
+            if (heap.size() < limit) {
+                heap.add(ranked);
+            } else if (ranking.compare(ranked, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(ranked);
+            }
+        }
+
+        Ranked[] sorted = heap.toArray(new Ranked[heap.size()]);
+        Arrays.sort(sorted, ranking);
+        List<File> results = new ArrayList<File>(sorted.length);
+        for (Ranked ranked : sorted) {
+            results.add(ranked.file.file);
+        }
+        return results;
+    }
+
+    private static class Ranked
+    {
+        final SortableFile file;
+
+        final long index;
+
+        Ranked(SortableFile file, long index)
+        {
+            this.file = file;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Sorts files, such that each file's attributes (such as its size and last modified date) are read at most once,
+     * rather than once per comparison. Works with any Comparator, including {@link ReverseComparator} and
+     * {@link DirectoriesFirstComparator}, but the built-in orders, such as {@link #NAME_ORDER} benefit the most.
+     * 
+     * @param files
+     *            The files to sort (in place)
+     * @param order
+     *            How the files should be ordered
      */
-    private void listFiles(List<File> results, File directory, int depth)
+    public static void sort(File[] files, Comparator<File> order)
     {
-        if ( stopping ) {
-            return;
+        SortableFile[] decorated = new SortableFile[files.length];
+        for (int i = 0; i < files.length; i++) {
+            decorated[i] = new SortableFile(files[i]);
         }
-        
-        File[] files = directory.listFiles(this);
-        if (files == null) {
-            _errors.println("Failed to list directory " + directory);
-            return;
+        Arrays.sort(decorated, order);
+        for (int i = 0; i < files.length; i++) {
+            files[i] = decorated[i].file;
         }
+    }
 
-        if (_sort == Sort.DIRECTORY) {
-            Arrays.sort(files, _order);
+    /**
+     * Sorts a list of files, in the same way as {@link #sort(File[], Comparator)}.
+     * 
+     * @param files
+     *            The files to sort (in place)
+     * @param order
+     *            How the files should be ordered
+     */
+    public static void sort(List<File> files, Comparator<File> order)
+    {
+        File[] array = files.toArray(new File[files.size()]);
+        sort(array, order);
+        for (int i = 0; i < array.length; i++) {
+            files.set(i, array[i]);
         }
-        for (File file : files) {
-            if (_canonical) {
-                try {
-                    file = file.getCanonicalFile();
-                } catch (Exception e) {
-                    _errors.println(e);
+    }
+
+    /**
+     * Reads the contents of a directory, without any filtering. Each directory is read only once, and the
+     * results are then filtered by {@link #accept(File)} and by {@link SubDirectoryFilter}.
+     * When an {@link #index(DirectoryIndex)} is used, unchanged directories are listed from the index.
+     * When {@link #cacheAttributes()} is used, each entry is an {@link AttributedFile}, so that filtering and sorting
+     * do not need to query the file system again. Without an index, the directory is read using a
+     * {@link DirectoryStream}. With an index, the attributes of each entry listed by the index are read once.
+     * 
+     * @param directory
+     * @return The contents of the directory, or null if the directory could not be read.
+     */
+    private File[] readDirectory(File directory)
+    {
+        if (_index != null) {
+            File[] children = _index.listFiles(directory);
+            if (_cacheAttributes && (children != null)) {
+                for (int i = 0; i < children.length; i++) {
+                    children[i] = AttributedFile.create(children[i].toPath());
                 }
             }
-            results.add(file);
+            return children;
+        }
+        if (!_cacheAttributes) {
+            return directory.listFiles();
+        }
 
-            if ((depth < _depth) && _includeDirectories && file.isDirectory()) {
-                listFiles(results, file, depth + 1);
+        List<File> children = new ArrayList<File>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath())) {
+            for (Path path : stream) {
+                children.add(AttributedFile.create(path));
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            return null;
+        }
+        return children.toArray(new File[children.size()]);
+    }
 
+    private static File[] filter(File[] children, FileFilter filter)
+    {
+        List<File> result = new ArrayList<File>(children.length);
+        for (File child : children) {
+            if (filter.accept(child)) {
+                result.add(child);
             }
         }
+        return result.toArray(new File[result.size()]);
+    }
+
+    /**
+     * Lists a single directory when walking a tree in parallel (see {@link FileLister#parallel(int)}).
+     * Each sub-directory is forked as a new DirectoryTask, and their results are joined in the same order as
+     * the serial listing, so that {@link Sort#DIRECTORY} still groups and orders each directory correctly.
+     * If the lister is stopped, outstanding sub-tasks are cancelled, and the partial results are returned.
+     */
+    private class DirectoryTask extends RecursiveTask<List<File>>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final File _directory;
+
+        private final int _depth;
+
+        private final FileFilter _filter;
+
+        DirectoryTask(File directory, int depth, FileFilter filter)
+        {
+            _directory = directory;
+            _filter = filter;
+            _depth = depth;
+        }
+
+        @Override
+        protected List<File> compute()
+        {
+            List<File> results = new ArrayList<File>();
+            if (stopping) {
+                return results;
+            }
+
+            File[] children = readDirectory(_directory);
+            if (children == null) {
+                _errors.println("Failed to list directory " + _directory);
+                return results;
+            }
+            File[] files = filter(children, _filter);
 
-        if (depth < _depth && (!_includeDirectories)) {
-            File[] subDirs = directory.listFiles(_subDirectoryFilter);
             if (_sort == Sort.DIRECTORY) {
-                Arrays.sort(subDirs, _order);
+                sort(files, _order);
+            }
+
+            // subTasks.get(i) is the listing of entries.get(i), or null if it isn't being entered.
+            List<File> entries = new ArrayList<File>(files.length);
+            List<DirectoryTask> subTasks = new ArrayList<DirectoryTask>(files.length);
+
+            for (File file : files) {
+                if (_canonical) {
+                    try {
+                        file = file.getCanonicalFile();
+                    } catch (Exception e) {
+                        _errors.println(e);
+                    }
+                }
+                entries.add(file);
+
+                if ((_depth < FileLister.this._depth) && _includeDirectories && file.isDirectory()) {
+                    subTasks.add(fork(file));
+                } else {
+                    subTasks.add(null);
+                }
             }
-            for (File subDir : subDirs) {
-                listFiles(results, subDir, depth + 1);
+
+            if (_depth < FileLister.this._depth && (!_includeDirectories)) {
+                File[] subDirs = filter(children, _subDirectoryFilter);
+                if (_sort == Sort.DIRECTORY) {
+                    sort(subDirs, _order);
+                }
+                for (File subDir : subDirs) {
+                    entries.add(null);
+                    subTasks.add(fork(subDir));
+                }
             }
+
+            for (int i = 0; i < entries.size(); i++) {
+                File entry = entries.get(i);
+                if (entry != null) {
+                    results.add(entry);
+                }
+                DirectoryTask subTask = subTasks.get(i);
+                if (subTask != null) {
+                    if (stopping) {
+                        subTask.cancel(false);
+                    } else {
+                        results.addAll(subTask.join());
+                    }
+                }
+            }
+
+            return results;
+        }
+
+        private DirectoryTask fork(File subDirectory)
+        {
+            DirectoryTask subTask = new DirectoryTask(subDirectory, _depth + 1, _filter);
+            subTask.fork();
+            return subTask;
         }
     }
 
     /**
      * Will the file (or directory) be included in the list of results?
-     * 
+     * The listing methods don't call this directly, they use the equivalent filter returned by
+     * {@link #compileFilter()}.
      */
     @Override
     public boolean accept(File file)
@@ -779,6 +1410,117 @@ public class FileLister
         return true;
     }
 
+    /**
+     * Creates a filter which accepts the same files as {@link #accept(File)}, but is faster, because the criteria are
+     * worked out once, rather than for every file. The cheapest tests (those that only need the file's name) are
+     * performed first, and those which need to query the file system, such as {@link File#isDirectory()}, are only
+     * performed when necessary.
+     * <p>
+     * The filter is a snapshot of the current criteria, so create a new one if the criteria change.
+     * The listing methods do this each time they are called.
+     * </p>
+     * 
+     * @return A filter equivalent to {@link #accept(File)}.
+     */
+    public FileFilter compileFilter()
+    {
+        return new CompiledFilter();
+    }
+
+    /**
+     * See {@link FileLister#compileFilter()}.
+     */
+    private class CompiledFilter implements FileFilter
+    {
+        private final Set<String> _extensions;
+
+        private final ThreadLocal<Matcher> _fileMatcher;
+
+        private final ThreadLocal<Matcher> _directoryMatcher;
+
+        /**
+         * Are files and directories treated differently? If not, then there is no need to call isDirectory().
+         */
+        private final boolean _needType;
+
+        private final boolean _excludeHiddenFiles;
+
+        private final boolean _excludeHiddenDirectories;
+
+        private final boolean _includeFiles;
+
+        private final boolean _includeDirectories;
+
+        private final FileFilter _customFilter;
+
+        CompiledFilter()
+        {
+            _extensions = (_fileExtensions == null) ? null : new HashSet<String>(Arrays.asList(_fileExtensions));
+            _fileMatcher = matcher(filePattern);
+            _directoryMatcher = matcher(directoryPattern);
+            _includeFiles = FileLister.this._includeFiles;
+            _includeDirectories = FileLister.this._includeDirectories;
+            _excludeHiddenFiles = !_includeHidden;
+            _excludeHiddenDirectories = !_enterHidden && !_includeHidden;
+            // When extensions are given, the custom filter is ignored (in the same way as FileLister.accept).
+            _customFilter = (_extensions == null) ? FileLister.this._customFilter : null;
+
+            _needType = !_includeFiles || !_includeDirectories || (_fileMatcher != null) || (_directoryMatcher != null)
+                || (_excludeHiddenFiles != _excludeHiddenDirectories);
+        }
+
+        private ThreadLocal<Matcher> matcher(final Pattern pattern)
+        {
+            if (pattern == null) {
+                return null;
+            }
+            return new ThreadLocal<Matcher>()
+            {
+                @Override
+                protected Matcher initialValue()
+                {
+                    return pattern.matcher("");
+                }
+            };
+        }
+
+        @Override
+        public boolean accept(File file)
+        {
+            String name = file.getName();
+
+            if (_extensions != null) {
+                int lastDot = name.lastIndexOf('.');
+                if ((lastDot < 0) || !_extensions.contains(name.substring(lastDot + 1))) {
+                    return false;
+                }
+            }
+
+            boolean excludeHidden = _excludeHiddenFiles;
+            if (_needType) {
+                boolean isDirectory = file.isDirectory();
+                if (isDirectory ? !_includeDirectories : !_includeFiles) {
+                    return false;
+                }
+
+                ThreadLocal<Matcher> matcher = isDirectory ? _directoryMatcher : _fileMatcher;
+                if ((matcher != null) && !matcher.get().reset(name).matches()) {
+                    return false;
+                }
+                excludeHidden = isDirectory ? _excludeHiddenDirectories : _excludeHiddenFiles;
+            }
+
+            if (excludeHidden && file.isHidden()) {
+                return false;
+            }
+
+            if (_customFilter != null) {
+                return _customFilter.accept(file);
+            }
+            return true;
+        }
+    }
+
     /**
      * Decides if a sub-directory should be entered when recursing through a tree of directories.
      * Based on {@link FileLister#_enterHidden}, {@link FileLister#_includeHidden} and {@link FileLister#_customFilter}.
@@ -78,12 +78,20 @@ public class FileListerTask extends Task implements Stoppable
         .description("Return canonical filenames?")
         .value(false).parameter();
 
+    public IntegerParameter limit = new IntegerParameter.Builder("limit").range(1, null)
+        .description("The maximum number of results")
+        .optional().parameter();
+
+    public IntegerParameter threads = new IntegerParameter.Builder("threads").value(1).range(1, 64)
+        .description("The number of threads used to walk the directory tree")
+        .parameter();
+
     public FileListerTask()
     {
         addParameters(directory,
             includeFiles, includeDirectories, includeHidden, enterHidden, depth,
             fileExtensions, filePattern, directoryPattern,
-            order, reverse, sort, canonical);
+            order, reverse, sort, limit, canonical, threads);
     }
 
     public void body()
@@ -130,8 +138,14 @@ public class FileListerTask extends Task implements Stoppable
         }
         lister.setSort(sort.getValue());
 
+        if (limit.getValue() != null) {
+            lister.setLimit(limit.getValue());
+        }
+
         lister.setCanonical(canonical.getValue());
 
+        lister.setParallelism(threads.getValue());
+
         return lister;
     }
 }
@@ -3,16 +3,23 @@ package uk.co.nickthecoder.jguifier.util;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStream;
+import java.lang.ProcessBuilder.Redirect;
 
 /**
  * Redirects output to a file.
+ * <p>
+ * When used by an {@link Exec}, the process writes directly to the file (see {@link #getRedirect()}), so no data
+ * passes through the JVM. Sub-classes of FileSink are always copied through the JVM, so that they can see the data.
+ * </p>
  * 
  * @priority 4
  */
 public class FileSink extends CopySink
 {
-    private OutputStream _out;
+    private final File _file;
+
+    private final boolean _append;
 
     public FileSink(String filename)
         throws IOException
@@ -35,13 +42,39 @@ public class FileSink extends CopySink
     public FileSink(File file, boolean append)
         throws IOException
     {
-        this(new FileOutputStream(file, append));
+        _file = file;
+        _append = append;
+    }
+
+    public File getFile()
+    {
+        return _file;
+    }
+
+    public boolean getAppend()
+    {
+        return _append;
     }
 
-    private FileSink(OutputStream out)
+    /**
+     * @return The equivalent redirection, which lets the operating system write the process's output to the file.
+     */
+    public Redirect getRedirect()
     {
-        super(out);
-        _out = out;
+        return _append ? Redirect.appendTo(_file) : Redirect.to(_file);
+    }
+
+    @Override
+    public void setStream(InputStream in)
+    {
+        super.setStream(in);
+        try {
+            _out = new FileOutputStream(_file, _append);
+        } catch (IOException e) {
+            sinkError(e);
+            // Discard the output, so that the process doesn't stall.
+            _out = new NullOutputStream();
+        }
     }
 
     @Override
@@ -0,0 +1,66 @@
+package uk.co.nickthecoder.jguifier.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
+
+/**
+ * Feeds the contents of a file to an {@link Exec}'s stdin, similar to a redirect such as mycommand &lt; file
+ * <p>
+ * When used by an {@link Exec}, the process reads directly from the file (see {@link #getRedirect()}), so no data
+ * passes through the JVM. Sub-classes of FileSource are always copied through the JVM.
+ * </p>
+ * 
+ * @priority 4
+ */
+public class FileSource implements Source
+{
+    private final File _file;
+
+    public FileSource(File file)
+    {
+        _file = file;
+    }
+
+    public File getFile()
+    {
+        return _file;
+    }
+
+    /**
+     * @return The equivalent redirection, which lets the process read the file directly.
+     */
+    public Redirect getRedirect()
+    {
+        return Redirect.from(_file);
+    }
+
+    @Override
+    public void setStream(OutputStream os)
+    {
+        try {
+            InputStream in = new FileInputStream(_file);
+            byte[] buffer = BufferPool.getDefault().acquireBytes();
+            try {
+                int len;
+                while ((len = in.read(buffer)) != -1) {
+                    os.write(buffer, 0, len);
+                }
+            } finally {
+                BufferPool.getDefault().release(buffer);
+                in.close();
+            }
+        } catch (IOException e) {
+            System.err.println("File Source Error : " + e);
+        } finally {
+            try {
+                os.close();
+            } catch (IOException e) {
+                // Do nothing
+            }
+        }
+    }
+}
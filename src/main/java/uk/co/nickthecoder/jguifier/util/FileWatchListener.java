@@ -0,0 +1,18 @@
+package uk.co.nickthecoder.jguifier.util;
+
+import java.io.File;
+
+/**
+ * Notified by a {@link FileWatcher} when files matching a {@link FileLister}'s criteria are added, removed or
+ * modified.
+ * 
+ * @priority 4
+ */
+public interface FileWatchListener
+{
+    public void added(File file);
+
+    public void removed(File file);
+
+    public void modified(File file);
+}
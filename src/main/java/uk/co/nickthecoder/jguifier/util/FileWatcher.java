@@ -0,0 +1,249 @@
+package uk.co.nickthecoder.jguifier.util;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Keeps the results of a {@link FileLister} up to date, by watching the directories which it visits, using
+ * a {@link WatchService}. Whenever a file matching the lister's criteria is added, removed or modified, the
+ * {@link FileWatchListener} is notified. Create one using {@link FileLister#watch(File, FileWatchListener)}.
+ * <p>
+ * The listener is called from the watcher's own thread. New sub-directories are watched as they appear (within the
+ * lister's depth), and files already inside them are reported as added.
+ * </p>
+ * <p>
+ * Note, the watcher ignores {@link FileLister#canonical()} and {@link FileLister#includeBase()}.
+ * If the operating system drops events (an overflow), the watched tree is re-scanned, and the differences are
+ * reported.
+ * </p>
+ * 
+ * @priority 4
+ */
+public class FileWatcher implements Runnable, Stoppable
+{
+    private final FileLister _lister;
+
+    private final File _directory;
+
+    private final FileWatchListener _listener;
+
+    private final FileFilter _filter;
+
+    private final WatchService _watchService;
+
+    /**
+     * The depth of each watched directory (1 for the top directory), keyed on its WatchKey.
+     */
+    private final Map<WatchKey, WatchedDirectory> _watched = new ConcurrentHashMap<WatchKey, WatchedDirectory>();
+
+    /**
+     * The files currently matching the lister's criteria, ordered by their paths, so that the contents of a
+     * directory can be found quickly when it is removed.
+     */
+    private final NavigableSet<File> _files = new ConcurrentSkipListSet<File>();
+
+    private volatile boolean _stopping = false;
+
+    FileWatcher(FileLister lister, File directory, FileWatchListener listener)
+        throws IOException
+    {
+        _lister = lister;
+        _directory = directory;
+        _listener = listener;
+        _filter = lister.compileFilter();
+        _watchService = FileSystems.getDefault().newWatchService();
+
+        if (lister.getDepth() > 0) {
+            scan(directory, 1, false);
+        }
+    }
+
+    /**
+     * @return The files currently matching the lister's criteria, sorted together using the lister's order.
+     */
+    public List<File> getFiles()
+    {
+        List<File> result = new ArrayList<File>(_files);
+        FileLister.sort(result, _lister.getOrder());
+        return result;
+    }
+
+    public File getDirectory()
+    {
+        return _directory;
+    }
+
+    /**
+     * Waits for changes, and notifies the listener, until {@link #stop()} is called.
+     */
+    @Override
+    public void run()
+    {
+        try {
+            while (!_stopping) {
+                WatchKey key = _watchService.take();
+                WatchedDirectory watched = _watched.get(key);
+                if (watched != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW) {
+                            rescan();
+                        } else {
+                            File file = watched.directory.toPath().resolve((Path) event.context()).toFile();
+                            changed(watched, file, event.kind());
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    _watched.remove(key);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Do nothing
+        } catch (ClosedWatchServiceException e) {
+            // Do nothing - we've been stopped.
+        }
+    }
+
+    private void changed(WatchedDirectory parent, File file, WatchEvent.Kind<?> kind)
+    {
+        if (kind == ENTRY_CREATE) {
+            if ((parent.depth < _lister.getDepth()) && _lister.entersDirectory(file, _filter)) {
+                scan(file, parent.depth + 1, true);
+            }
+            if (_filter.accept(file) && _files.add(file)) {
+                _listener.added(file);
+            }
+
+        } else if (kind == ENTRY_DELETE) {
+            removeTree(file);
+            if (_files.remove(file)) {
+                _listener.removed(file);
+            }
+
+        } else if (kind == ENTRY_MODIFY) {
+            if (_files.contains(file)) {
+                _listener.modified(file);
+            }
+        }
+    }
+
+    /**
+     * Watches a directory, and its sub-directories (within the lister's depth), adding the matching files.
+     */
+    private void scan(File directory, int depth, boolean notify)
+    {
+        try {
+            WatchKey key = directory.toPath().register(_watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            _watched.put(key, new WatchedDirectory(directory, depth));
+        } catch (IOException e) {
+            return;
+        }
+
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (_filter.accept(child) && _files.add(child) && notify) {
+                _listener.added(child);
+            }
+            if ((depth < _lister.getDepth()) && _lister.entersDirectory(child, _filter)) {
+                scan(child, depth + 1, notify);
+            }
+        }
+    }
+
+    /**
+     * Forgets the contents of a directory which has been removed (or moved away), and stops watching it and its
+     * sub-directories. Their WatchKeys aren't always cancelled automatically, for example when the tree is moved
+     * rather than deleted.
+     */
+    private void removeTree(File directory)
+    {
+        String prefix = directory.getPath() + File.separatorChar;
+        for (Map.Entry<WatchKey, WatchedDirectory> entry : _watched.entrySet()) {
+            File watched = entry.getValue().directory;
+            if (watched.equals(directory) || watched.getPath().startsWith(prefix)) {
+                entry.getKey().cancel();
+                _watched.remove(entry.getKey());
+            }
+        }
+
+        File from = new File(prefix);
+        File to = new File(directory.getPath() + (char) (File.separatorChar + 1));
+
+        for (File file : new ArrayList<File>(_files.subSet(from, true, to, false))) {
+            if (file.getPath().startsWith(prefix) && _files.remove(file)) {
+                _listener.removed(file);
+            }
+        }
+    }
+
+    /**
+     * Events have been lost, so re-scan the whole tree, and report the differences.
+     */
+    private void rescan()
+    {
+        Set<File> before = new HashSet<File>(_files);
+        for (WatchKey key : _watched.keySet()) {
+            key.cancel();
+        }
+        _watched.clear();
+        _files.clear();
+
+        scan(_directory, 1, false);
+
+        for (File file : _files) {
+            if (!before.remove(file)) {
+                _listener.added(file);
+            }
+        }
+        for (File file : before) {
+            _listener.removed(file);
+        }
+    }
+
+    @Override
+    public void stop()
+    {
+        _stopping = true;
+        try {
+            _watchService.close();
+        } catch (IOException e) {
+            // Do nothing
+        }
+    }
+
+    private static class WatchedDirectory
+    {
+        final File directory;
+
+        final int depth;
+
+        WatchedDirectory(File directory, int depth)
+        {
+            this.directory = directory;
+            this.depth = depth;
+        }
+    }
+}
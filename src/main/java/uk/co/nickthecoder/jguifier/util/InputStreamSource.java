@@ -0,0 +1,96 @@
+package uk.co.nickthecoder.jguifier.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Copies an InputStream, or the contents of a {@link Path}, to an {@link Exec}'s stdin, in the background, using
+ * buffers from a {@link BufferPool}.
+ * <p>
+ * For a file on the default file system, {@link FileSource} is better, as the process can read the file directly.
+ * </p>
+ * 
+ * @priority 4
+ */
+public class InputStreamSource extends StreamingSource
+{
+    private InputStream _in;
+
+    private final Path _path;
+
+    private final byte[] _bytes;
+
+    private BufferPool _bufferPool = BufferPool.getDefault();
+
+    /**
+     * @param in
+     *            The data to be copied. It is closed once it has been copied.
+     */
+    public InputStreamSource(InputStream in)
+    {
+        _in = in;
+        _path = null;
+        _bytes = null;
+    }
+
+    /**
+     * @param bytes
+     *            The data to be copied.
+     */
+    public InputStreamSource(byte[] bytes)
+    {
+        _in = null;
+        _path = null;
+        _bytes = bytes;
+    }
+
+    /**
+     * @param path
+     *            The file to be copied. It is opened when the process starts.
+     */
+    public InputStreamSource(Path path)
+    {
+        _in = null;
+        _path = path;
+        _bytes = null;
+    }
+
+    /**
+     * @return The data, if this was created from a byte array, otherwise null.
+     */
+    public byte[] getBytes()
+    {
+        return _bytes;
+    }
+
+    public void setBufferPool(BufferPool pool)
+    {
+        _bufferPool = pool;
+    }
+
+    public BufferPool getBufferPool()
+    {
+        return _bufferPool;
+    }
+
+    @Override
+    protected void write(OutputStream out) throws IOException
+    {
+        InputStream in = (_bytes != null) ? new ByteArrayInputStream(_bytes)
+            : (_path != null) ? Files.newInputStream(_path) : _in;
+        byte[] buffer = _bufferPool.acquireBytes();
+        try {
+            int len;
+            while ((len = in.read(buffer, 0, buffer.length)) != -1) {
+                out.write(buffer, 0, len);
+            }
+        } finally {
+            _bufferPool.release(buffer);
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package uk.co.nickthecoder.jguifier.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Passes each line of output to a {@link Consumer}, or a {@link BlockingQueue}, as soon as it arrives, rather than
+ * buffering all of the output (as {@link StringBufferSink} does). Memory use stays constant however much output
+ * there is, and the lines can be processed while the command is still running.
+ * <p>
+ * The line terminators ("\n" or "\r\n") are not included in the lines.
+ * </p>
+ * <p>
+ * When using a bounded queue, the command is held up (in the same way as a command line pipe) whenever the queue
+ * is full, so a slow consumer won't cause the output to pile up in memory. Once all of the output has been read,
+ * {@link #END_OF_OUTPUT} is added to the queue, so the consumer knows when to stop. It is also added if the
+ * sink is never run, for example when the command could not be started :
+ * </p>
+ * 
+ * <pre>
+ * <code>
+ * BlockingQueue&lt;String&gt; queue = new ArrayBlockingQueue&lt;String&gt;(100);
+ * new Exec("find", ".").stdout(new LineSink(queue)).runAsync();
+ * String line;
+ * while ((line = queue.take()) != LineSink.END_OF_OUTPUT) {
+ *     ...
+ * }
+ * </code>
+ * </pre>
+ * 
+ * Note, compare with END_OF_OUTPUT using == (not equals), so that empty lines aren't mistaken for the end.
+ * 
+ * @priority 4
+ */
+public class LineSink extends SimpleSink
+{
+    /**
+     * Added to the queue after the last line of output.
+     */
+    public static final String END_OF_OUTPUT = new String("");
+
+    private final Consumer<String> _consumer;
+
+    private final BlockingQueue<String> _queue;
+
+    private final StringBuilder _partial = new StringBuilder();
+
+    /**
+     * @param consumer
+     *            Called once for each line, from the thread reading the command's output.
+     */
+    public LineSink(Consumer<String> consumer)
+    {
+        _consumer = consumer;
+        _queue = null;
+    }
+
+    /**
+     * @param queue
+     *            Each line is added to the queue, waiting if the queue is full. {@link #END_OF_OUTPUT} is added
+     *            after the last line.
+     */
+    public LineSink(BlockingQueue<String> queue)
+    {
+        _consumer = null;
+        _queue = queue;
+    }
+
+    @Override
+    public void run()
+    {
+        _partial.setLength(0);
+        super.run();
+        try {
+            if (_partial.length() > 0) {
+                line(_partial.toString());
+                _partial.setLength(0);
+            }
+            if (_queue != null) {
+                _queue.put(END_OF_OUTPUT);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            sinkError(e);
+        }
+    }
+
+    /**
+     * Called by {@link Exec} when the sink won't be run, so that a consumer waiting for {@link #END_OF_OUTPUT}
+     * isn't left waiting forever.
+     */
+    void end()
+    {
+        if (_queue != null) {
+            try {
+                _queue.put(END_OF_OUTPUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    protected void sink(char[] buffer, int len) throws IOException
+    {
+        int start = 0;
+        for (int i = 0; i < len; i++) {
+            if (buffer[i] == '\n') {
+                int end = (i > start) && (buffer[i - 1] == '\r') ? i - 1 : i;
+                if (_partial.length() == 0) {
+                    line(new String(buffer, start, end - start));
+                } else {
+                    _partial.append(buffer, start, i - start);
+                    int length = _partial.length();
+                    if ((length > 0) && (_partial.charAt(length - 1) == '\r')) {
+                        _partial.setLength(length - 1);
+                    }
+                    line(_partial.toString());
+                    _partial.setLength(0);
+                }
+                start = i + 1;
+            }
+        }
+        if (start < len) {
+            _partial.append(buffer, start, len - start);
+        }
+    }
+
+    private void line(String line) throws IOException
+    {
+        if (_consumer == null) {
+            try {
+                _queue.put(line);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        } else {
+            _consumer.accept(line);
+        }
+    }
+}
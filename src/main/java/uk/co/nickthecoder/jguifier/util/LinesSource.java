@@ -0,0 +1,53 @@
+package uk.co.nickthecoder.jguifier.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+/**
+ * Writes lines of text to an {@link Exec}'s stdin, in the background. The lines are taken from the iterator as the
+ * process reads them, so they can be generated on the fly, without building the whole of the input in memory.
+ * 
+ * <pre>
+ * <code>
+ * Iterator&lt;String&gt; names = new FileLister().depth(10).stream(directory).map(File::getPath).iterator();
+ * new Exec("sort").stdin(names).stdout().run();
+ * </code>
+ * </pre>
+ * 
+ * Each line is followed by "\n".
+ * 
+ * @priority 4
+ */
+public class LinesSource extends StreamingSource
+{
+    private final Iterator<String> _lines;
+
+    private final Charset _charset;
+
+    public LinesSource(Iterator<String> lines)
+    {
+        this(lines, Charset.defaultCharset());
+    }
+
+    public LinesSource(Iterator<String> lines, Charset charset)
+    {
+        _lines = lines;
+        _charset = charset;
+    }
+
+    @Override
+    protected void write(OutputStream out) throws IOException
+    {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, _charset), BufferPool.DEFAULT_BUFFER_SIZE);
+        while (_lines.hasNext()) {
+            writer.write(_lines.next());
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+}
@@ -0,0 +1,66 @@
+package uk.co.nickthecoder.jguifier.util;
+
+import java.nio.charset.Charset;
+
+/**
+ * A chunk of output from a process, read from either stdout or stderr. See {@link OutputEvents}.
+ * 
+ * @priority 4
+ */
+public class OutputEvent
+{
+    public enum Stream
+    {
+        STDOUT, STDERR
+    }
+
+    private final Stream _stream;
+
+    private final long _nanoTime;
+
+    private final byte[] _bytes;
+
+    public OutputEvent(Stream stream, long nanoTime, byte[] bytes)
+    {
+        _stream = stream;
+        _nanoTime = nanoTime;
+        _bytes = bytes;
+    }
+
+    public Stream getStream()
+    {
+        return _stream;
+    }
+
+    public boolean isStderr()
+    {
+        return _stream == Stream.STDERR;
+    }
+
+    /**
+     * @return The value of System.nanoTime() when the output was read.
+     */
+    public long getNanoTime()
+    {
+        return _nanoTime;
+    }
+
+    public byte[] getBytes()
+    {
+        return _bytes;
+    }
+
+    /**
+     * Note, a multi-byte character may be split between two events.
+     */
+    public String getText(Charset charset)
+    {
+        return new String(_bytes, charset);
+    }
+
+    @Override
+    public String toString()
+    {
+        return _stream + " " + _nanoTime + " : " + new String(_bytes, Charset.defaultCharset());
+    }
+}
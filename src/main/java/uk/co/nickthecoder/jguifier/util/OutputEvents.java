@@ -0,0 +1,201 @@
+package uk.co.nickthecoder.jguifier.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Collects a process's stdout and stderr into a single queue of {@link OutputEvent}s, each labelled with the
+ * stream it came from, and the time it was read. Unlike {@link Exec#mergeStderr()}, you can tell stdout and stderr
+ * apart, and unlike using separate Sinks, the relative order of stdout and stderr is kept.
+ * 
+ * <pre>
+ * <code>
+ * OutputEvents events = new OutputEvents();
+ * new Exec("make").events(events).runAsync();
+ * OutputEvent event;
+ * while ((event = events.take()) != null) {
+ *     (event.isStderr() ? errorLog : log).write(event.getBytes());
+ * }
+ * </code>
+ * </pre>
+ * 
+ * The output is read by {@link Exec}'s shared threads, and added to a lock-free queue, as soon as it is read. The
+ * events are queued in the order they were read, which is as close as we can get to the order in which the process
+ * wrote them (a process which writes to stdout and stderr at almost the same time may have them read in either
+ * order).
+ * <p>
+ * The queue may be read from any thread, but only one thread should call {@link #take()}.
+ * </p>
+ * 
+ * @priority 4
+ */
+public class OutputEvents
+{
+    private final Queue<OutputEvent> _queue = new ConcurrentLinkedQueue<OutputEvent>();
+
+    private final AtomicInteger _running = new AtomicInteger(2);
+
+    private volatile Thread _waiter;
+
+    private final EventSink _stdout = new EventSink(OutputEvent.Stream.STDOUT);
+
+    private final EventSink _stderr = new EventSink(OutputEvent.Stream.STDERR);
+
+    private BufferPool _bufferPool = BufferPool.getDefault();
+
+    public Sink getStdoutSink()
+    {
+        return _stdout;
+    }
+
+    public Sink getStderrSink()
+    {
+        return _stderr;
+    }
+
+    public void setBufferPool(BufferPool pool)
+    {
+        _bufferPool = pool;
+    }
+
+    public BufferPool getBufferPool()
+    {
+        return _bufferPool;
+    }
+
+    /**
+     * @return The next event, or null if there are no events waiting.
+     */
+    public OutputEvent poll()
+    {
+        return _queue.poll();
+    }
+
+    /**
+     * Waits for the next event.
+     * 
+     * @return The next event, or null if both stdout and stderr have ended, and all of the events have been taken.
+     * @throws InterruptedException
+     */
+    public OutputEvent take() throws InterruptedException
+    {
+        while (true) {
+            OutputEvent event = _queue.poll();
+            if (event != null) {
+                return event;
+            }
+            if (_running.get() == 0) {
+                // Check again, in case an event was added just before the end.
+                return _queue.poll();
+            }
+
+            _waiter = Thread.currentThread();
+            if (_queue.isEmpty() && (_running.get() > 0)) {
+                LockSupport.park(this);
+            }
+            _waiter = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * @return true if both stdout and stderr have ended, and all of the events have been taken.
+     */
+    public boolean isFinished()
+    {
+        return (_running.get() == 0) && _queue.isEmpty();
+    }
+
+    /**
+     * Takes all of the events which are currently waiting.
+     */
+    public List<OutputEvent> drain()
+    {
+        List<OutputEvent> events = new ArrayList<OutputEvent>();
+        OutputEvent event;
+        while ((event = _queue.poll()) != null) {
+            events.add(event);
+        }
+        return events;
+    }
+
+    /**
+     * Called by {@link Exec} for a stream which won't be read, such as when the process could not be started, when
+     * stderr is merged with stdout, or when the sink was replaced after calling {@link Exec#events(OutputEvents)}.
+     * Without this, {@link #take()} would wait forever for the stream to end.
+     */
+    void end(OutputEvent.Stream stream)
+    {
+        (stream == OutputEvent.Stream.STDOUT ? _stdout : _stderr).end();
+    }
+
+    private void wake()
+    {
+        Thread waiter = _waiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    private class EventSink implements Sink
+    {
+        private final OutputEvent.Stream _stream;
+
+        private InputStream _in;
+
+        private final AtomicBoolean _ended = new AtomicBoolean();
+
+        EventSink(OutputEvent.Stream stream)
+        {
+            _stream = stream;
+        }
+
+        @Override
+        public void setStream(InputStream in)
+        {
+            _in = in;
+        }
+
+        @Override
+        public void run()
+        {
+            byte[] buffer = _bufferPool.acquireBytes();
+            try {
+                if (_in != null) {
+                    int len;
+                    while ((len = _in.read(buffer, 0, buffer.length)) != -1) {
+                        _queue.offer(new OutputEvent(_stream, System.nanoTime(), Arrays.copyOf(buffer, len)));
+                        wake();
+                    }
+                    _in.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Sink error : " + e);
+            } finally {
+                _bufferPool.release(buffer);
+                end();
+            }
+        }
+
+        /**
+         * Counts this stream as ended, only once, whether it was read to the end, or never read at all.
+         */
+        void end()
+        {
+            if (_ended.compareAndSet(false, true)) {
+                _running.decrementAndGet();
+                wake();
+            }
+        }
+    }
+}
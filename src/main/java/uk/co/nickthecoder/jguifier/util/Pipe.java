@@ -14,6 +14,10 @@ import java.io.OutputStream;
  * Note, it is possible to pipe stdout to one command, and stderr to another. i.e. three
  * processes in total.
  * 
+ * When a Pipe is used for stdout on Java 9 or later, {@link Exec} starts both processes together, connected
+ * directly by the operating system, so the data doesn't pass through the JVM at all (and {@link #run()} isn't
+ * used). Sub-classes of Pipe are always copied through the JVM, so that they can see the data.
+ * 
  * @priority 4
  */
 public class Pipe extends CopySink
@@ -40,17 +44,39 @@ public class Pipe extends CopySink
         });
     }
 
+    public Exec getTarget()
+    {
+        return _target;
+    }
+
     @Override
     public void run()
     {
         try {
+            _target.runWithoutWaiting();
+        } catch (Exception e) {
+            e.printStackTrace();
+            // Discard the output, so that the source process doesn't stall.
+            _out = new NullOutputStream();
+        }
+
+        try {
+            super.run();
+        } finally {
             try {
-                _target.runWithoutWaiting();
+                _out.close();
             } catch (Exception e) {
+                // Do nothing
+            }
+        }
+
+        // Like a shell pipeline, the source Exec isn't complete until the target has completed.
+        if (_target.getProcess() != null) {
+            try {
+                _target.waitForCompletion();
+            } catch (InterruptedException e) {
+                // Do nothing
             }
-            _out.close();
-        } catch (Exception e) {
-            e.printStackTrace();
         }
     }
 
@@ -0,0 +1,135 @@
+package uk.co.nickthecoder.jguifier.util;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A process, and all of its descendants (children, grandchildren etc), so that they can be killed together. For
+ * example, if bash runs a pipeline, destroying the bash process alone would leave the pipeline running.
+ * <p>
+ * The descendants are found using ProcessHandle, which is only available from Java 9 onwards, so it is used via
+ * reflection. On Java 8, only the process itself is killed.
+ * </p>
+ * <p>
+ * The descendants are found when the ProcessTree is created, because once the process has been killed, its
+ * children are adopted by another process, and can no longer be found.
+ * </p>
+ */
+class ProcessTree
+{
+    private static final Method TO_HANDLE;
+    private static final Method DESCENDANTS;
+    private static final Method DESTROY;
+    private static final Method DESTROY_FORCIBLY;
+    private static final Method IS_ALIVE;
+
+    static {
+        Method toHandle = null;
+        Method descendants = null;
+        Method destroy = null;
+        Method destroyForcibly = null;
+        Method isAlive = null;
+        try {
+            Class<?> handleClass = Class.forName("java.lang.ProcessHandle");
+            toHandle = Process.class.getMethod("toHandle");
+            descendants = handleClass.getMethod("descendants");
+            destroy = handleClass.getMethod("destroy");
+            destroyForcibly = handleClass.getMethod("destroyForcibly");
+            isAlive = handleClass.getMethod("isAlive");
+        } catch (Exception e) {
+            toHandle = null;
+        }
+        TO_HANDLE = toHandle;
+        DESCENDANTS = descendants;
+        DESTROY = destroy;
+        DESTROY_FORCIBLY = destroyForcibly;
+        IS_ALIVE = isAlive;
+    }
+
+    private final Process _process;
+
+    /**
+     * The ProcessHandles of the descendants.
+     */
+    private final List<Object> _descendants;
+
+    ProcessTree(Process process)
+    {
+        _process = process;
+        _descendants = descendants(process);
+    }
+
+    /**
+     * Asks the processes to end, (on Unix, using SIGTERM), giving them a chance to tidy up.
+     */
+    void destroy()
+    {
+        _process.destroy();
+        invokeAll(DESTROY, _descendants);
+    }
+
+    /**
+     * Kills the processes (on Unix, using SIGKILL), including any descendants which have been created since the
+     * ProcessTree was created.
+     */
+    void destroyForcibly()
+    {
+        List<Object> latest = descendants(_process);
+        _process.destroyForcibly();
+        invokeAll(DESTROY_FORCIBLY, _descendants);
+        invokeAll(DESTROY_FORCIBLY, latest);
+    }
+
+    /**
+     * @return true if the process, or any of its descendants are still running.
+     */
+    boolean isAlive()
+    {
+        if (_process.isAlive()) {
+            return true;
+        }
+        for (Object handle : _descendants) {
+            if (Boolean.TRUE.equals(invoke(IS_ALIVE, handle))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Object> descendants(Process process)
+    {
+        List<Object> result = new ArrayList<Object>();
+        if (TO_HANDLE != null) {
+            Object stream = invoke(DESCENDANTS, invoke(TO_HANDLE, process));
+            if (stream != null) {
+                for (Iterator<?> i = ((Stream<?>) stream).iterator(); i.hasNext();) {
+                    result.add(i.next());
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void invokeAll(Method method, List<Object> handles)
+    {
+        for (Object handle : handles) {
+            invoke(method, handle);
+        }
+    }
+
+    private static Object invoke(Method method, Object target)
+    {
+        if ((method == null) || (target == null)) {
+            return null;
+        }
+        try {
+            return method.invoke(target);
+        } catch (Exception e) {
+            // The process may have already ended, or we may not have permission to kill it.
+            return null;
+        }
+    }
+}
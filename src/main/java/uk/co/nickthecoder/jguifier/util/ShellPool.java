@@ -0,0 +1,301 @@
+package uk.co.nickthecoder.jguifier.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs shell commands using a pool of long-lived shell processes, rather than starting a new process (as
+ * {@link Exec#bash(String)} does) for each command. When the same kind of command is run hundreds of times,
+ * the cost of starting bash each time can be far greater than the cost of the command itself.
+ * 
+ * <pre>
+ * <code>
+ * ShellPool pool = new ShellPool(4);
+ * for (File file : files) {
+ *     ShellResult result = pool.run("stat -c %s " + ShellPool.quote(file.getPath()));
+ *     ...
+ * }
+ * pool.stop();
+ * </code>
+ * </pre>
+ * 
+ * Each command is sent to an idle shell's stdin, followed by a unique marker, which the shell echoes (along with
+ * the exit status) to stdout and stderr, so that the output of one command can be separated from the next.
+ * Commands are not given any input (stdin is /dev/null).
+ * <p>
+ * Note, the shells are reused, so changes made by one command, such as changing directory, or setting variables,
+ * are seen by later commands run by the same shell. Commands which change the shell's state should be run in a
+ * sub-shell, by enclosing them in brackets. If a command makes the shell exit, then the shell is discarded, and
+ * {@link #run(String)} throws an IOException.
+ * </p>
+ * 
+ * @priority 4
+ */
+public class ShellPool implements Stoppable
+{
+    /**
+     * Reads the shells' stderr, while stdout is read by the thread running the command.
+     */
+    private static final ExecutorService READERS = Executors.newCachedThreadPool(new DaemonThreadFactory("ShellPool"));
+
+    private static final Random random = new Random();
+
+    private final String[] _shell;
+
+    private File _directory;
+
+    private final Semaphore _permits;
+
+    private final BlockingQueue<Worker> _idle = new LinkedBlockingQueue<Worker>();
+
+    private final Set<Worker> _workers = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean _stopped = false;
+
+    /**
+     * A pool of bash shells.
+     * 
+     * @param size
+     *            The maximum number of shells, and therefore, the maximum number of commands run at the same time.
+     *            The shells are started as they are needed.
+     */
+    public ShellPool(int size)
+    {
+        this(size, "bash");
+    }
+
+    /**
+     * @param size
+     *            The maximum number of shells.
+     * @param shell
+     *            The command to start a shell, which reads commands from stdin. It must understand bash's quoting,
+     *            eval and printf, (for example, "sh" or "zsh").
+     */
+    public ShellPool(int size, String... shell)
+    {
+        _permits = new Semaphore(size);
+        _shell = shell;
+    }
+
+    /**
+     * Sets the working directory of the shells. Only affects shells started afterwards.
+     * 
+     * @param directory
+     * @return this
+     */
+    public ShellPool dir(File directory)
+    {
+        _directory = directory;
+        return this;
+    }
+
+    /**
+     * Runs a command, waiting for it to complete. If all of the shells are busy, this waits for one to become
+     * available.
+     * 
+     * @param command
+     *            A shell command, such as you would pass to {@link Exec#bash(String)}.
+     * @return The exit status and output of the command.
+     * @throws IOException
+     *             If the shell could not be started, or it exited (for example, if the command called "exit").
+     * @throws InterruptedException
+     */
+    public ShellResult run(String command) throws IOException, InterruptedException
+    {
+        _permits.acquire();
+        Worker worker = null;
+        try {
+            if (_stopped) {
+                throw new IOException("ShellPool has been stopped");
+            }
+            worker = _idle.poll();
+            if (worker == null) {
+                worker = new Worker();
+            }
+            ShellResult result = worker.run(command);
+            _idle.add(worker);
+            worker = null;
+            return result;
+        } finally {
+            if (worker != null) {
+                worker.destroy();
+            }
+            _permits.release();
+        }
+    }
+
+    /**
+     * Ends all of the shells. Commands which are running will fail with an IOException.
+     */
+    @Override
+    public void stop()
+    {
+        _stopped = true;
+        for (Worker worker : _workers) {
+            worker.destroy();
+        }
+        _idle.clear();
+    }
+
+    /**
+     * Quotes text, so that the shell treats it as a single argument, without expanding any special characters.
+     * 
+     * @param text
+     * @return The text in single quotes, with any single quotes escaped.
+     */
+    public static String quote(String text)
+    {
+        return "'" + text.replace("'", "'\\''") + "'";
+    }
+
+    private class Worker
+    {
+        private final Process _process;
+
+        private final OutputStream _in;
+
+        private final InputStream _out;
+
+        private final InputStream _err;
+
+        private final String _marker;
+
+        private int _count = 0;
+
+        Worker() throws IOException
+        {
+            ProcessBuilder builder = new ProcessBuilder(_shell);
+            if (_directory != null) {
+                builder.directory(_directory);
+            }
+            _process = builder.start();
+            _workers.add(this);
+            _in = _process.getOutputStream();
+            _out = _process.getInputStream();
+            _err = _process.getErrorStream();
+            _marker = "__jguifier_" + Long.toHexString(random.nextLong()) + "_";
+        }
+
+        ShellResult run(String command) throws IOException, InterruptedException
+        {
+            final String end = _marker + (++_count);
+            String script = "eval " + quote(command) + " </dev/null\n" +
+                "printf '\\n%s %d\\n' " + end + " $?\n" +
+                "printf '\\n%s \\n' " + end + " >&2\n";
+
+            Future<Frame> errFuture = READERS.submit(new Callable<Frame>()
+            {
+                @Override
+                public Frame call() throws IOException
+                {
+                    return Frame.read(_err, end);
+                }
+            });
+
+            try {
+                _in.write(script.getBytes(Charset.defaultCharset()));
+                _in.flush();
+                Frame out = Frame.read(_out, end);
+                Frame err = errFuture.get();
+                return new ShellResult(command, Integer.parseInt(out.trailer), out.text, err.text);
+            } catch (ExecutionException e) {
+                throw (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+            } catch (NumberFormatException e) {
+                throw new IOException("Unexpected output from the shell");
+            } finally {
+                errFuture.cancel(false);
+            }
+        }
+
+        void destroy()
+        {
+            _workers.remove(this);
+            _process.destroy();
+        }
+    }
+
+    /**
+     * The output of one command, read from a shell's stdout or stderr, up to the marker line.
+     */
+    private static class Frame
+    {
+        final String text;
+
+        /**
+         * The text after the marker on the marker line (the exit status for stdout).
+         */
+        final String trailer;
+
+        Frame(String text, String trailer)
+        {
+            this.text = text;
+            this.trailer = trailer;
+        }
+
+        /**
+         * Reads until the line "end trailer". The line is preceded by an extra new line, which isn't part of the
+         * command's output, so that the marker is at the start of a line, even if the output doesn't end with a new
+         * line.
+         */
+        static Frame read(InputStream in, String end) throws IOException
+        {
+            byte[] terminator = ("\n" + end + " ").getBytes(Charset.defaultCharset());
+            byte[] bytes = new byte[8192];
+            int size = 0;
+            int searched = 0;
+            int found = -1;
+
+            while (true) {
+                if (found < 0) {
+                    found = indexOf(bytes, size, terminator, searched);
+                    searched = Math.max(0, size - terminator.length + 1);
+                }
+                if (found >= 0) {
+                    for (int i = found + terminator.length; i < size; i++) {
+                        if (bytes[i] == '\n') {
+                            Charset charset = Charset.defaultCharset();
+                            return new Frame(new String(bytes, 0, found, charset),
+                                new String(bytes, found + terminator.length, i - found - terminator.length, charset));
+                        }
+                    }
+                }
+                if (size == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                int amount = in.read(bytes, size, bytes.length - size);
+                if (amount == -1) {
+                    throw new IOException("The shell has exited");
+                }
+                size += amount;
+            }
+        }
+
+        private static int indexOf(byte[] bytes, int size, byte[] target, int from)
+        {
+            outer: for (int i = from; i <= size - target.length; i++) {
+                for (int j = 0; j < target.length; j++) {
+                    if (bytes[i + j] != target[j]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+    }
+}
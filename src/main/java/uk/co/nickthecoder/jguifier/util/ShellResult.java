@@ -0,0 +1,65 @@
+package uk.co.nickthecoder.jguifier.util;
+
+/**
+ * The outcome of a command run by a {@link ShellPool}.
+ * 
+ * @priority 4
+ */
+public class ShellResult
+{
+    private final String _command;
+
+    private final int _exitStatus;
+
+    private final String _stdout;
+
+    private final String _stderr;
+
+    public ShellResult(String command, int exitStatus, String stdout, String stderr)
+    {
+        _command = command;
+        _exitStatus = exitStatus;
+        _stdout = stdout;
+        _stderr = stderr;
+    }
+
+    public String getCommand()
+    {
+        return _command;
+    }
+
+    public int getExitStatus()
+    {
+        return _exitStatus;
+    }
+
+    public String getStdout()
+    {
+        return _stdout;
+    }
+
+    public String getStderr()
+    {
+        return _stderr;
+    }
+
+    /**
+     * @return The contents of stdout, with each line as one element of the array (in the same way as
+     *         {@link Exec#getStdoutAsArray()}).
+     */
+    public String[] getStdoutAsArray()
+    {
+        return _stdout.split("\\r?\\n");
+    }
+
+    public boolean isSuccess()
+    {
+        return _exitStatus == 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ShellResult exit status " + _exitStatus + " : " + _command;
+    }
+}
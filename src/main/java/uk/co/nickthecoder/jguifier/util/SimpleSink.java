@@ -2,47 +2,91 @@ package uk.co.nickthecoder.jguifier.util;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 
 import uk.co.nickthecoder.jguifier.Task;
 
 /**
  * Throws the output away. This is the default sink for a {@link Task}'s stdout and stderr.
+ * <p>
+ * Sub-classes receive the output as text via {@link #sink(char[], int)}. The output is read in large chunks, using
+ * buffers from a {@link BufferPool}, and decoded using the platform's default character set.
+ * </p>
  * 
  * @priority 5
  */
 public class SimpleSink implements Sink
 {
+    protected BufferPool _bufferPool = BufferPool.getDefault();
 
-    protected int _bufferSize = 1024;
+    /**
+     * The size of the buffers used.
+     * 
+     * @deprecated Use {@link #setBufferPool(BufferPool)}. Kept for sub-classes which read or set it. If it is changed,
+     *             then buffers of this size are used, rather than those from the pool.
+     */
+    @Deprecated
+    protected int _bufferSize = BufferPool.DEFAULT_BUFFER_SIZE;
 
-    InputStreamReader _reader;
+    protected InputStream _in;
 
     @Override
     public void setStream(InputStream in)
     {
-        _reader = new InputStreamReader(in);
+        _in = in;
+    }
+
+    public void setBufferPool(BufferPool pool)
+    {
+        _bufferPool = pool;
+        _bufferSize = pool.getBufferSize();
+    }
+
+    /**
+     * @return The pool of buffers, which is replaced by a pool of the correct size if a sub-class has changed the
+     *         deprecated {@link #_bufferSize}.
+     */
+    public BufferPool getBufferPool()
+    {
+        if (_bufferSize != _bufferPool.getBufferSize()) {
+            _bufferPool = new BufferPool(_bufferSize, 1);
+        }
+        return _bufferPool;
     }
 
     @Override
     public void run()
     {
-        if (_reader == null) {
+        if (_in == null) {
             return;
         }
         //System.out.println( "Started SimpleSink" );
+        BufferPool pool = getBufferPool();
+        byte[] bytes = pool.acquireBytes();
+        char[] chars = null;
         try {
-            char[] buffer = new char[_bufferSize];
-
-            int amount = 0;
-            while ((amount = _reader.read(buffer, 0, _bufferSize)) != -1) {
-                sink(buffer, amount);
+            if (getClass() == SimpleSink.class) {
+                // Nothing to sink, so don't bother decoding.
+                while (_in.read(bytes, 0, bytes.length) != -1) {
+                }
+            } else {
+                chars = pool.acquireChars();
+                decode(bytes, chars);
             }
         } catch (IOException e) {
             sinkError(e);
         } finally {
+            pool.release(bytes);
+            if (chars != null) {
+                pool.release(chars);
+            }
             try {
-                _reader.close();
+                _in.close();
             } catch (Exception e) {
                 // Do nothing
             }
@@ -50,6 +94,50 @@ public class SimpleSink implements Sink
         //System.out.println( "Ended SimpleSink" );
     }
 
+    private void decode(byte[] bytes, char[] chars) throws IOException
+    {
+        CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+        CharBuffer charBuffer = CharBuffer.wrap(chars);
+
+        int amount;
+        while ((amount = _in.read(bytes, byteBuffer.position(), byteBuffer.remaining())) != -1) {
+            byteBuffer.position(byteBuffer.position() + amount);
+            byteBuffer.flip();
+            decode(decoder, byteBuffer, charBuffer, false);
+            // Keep any partial characters for the next read.
+            byteBuffer.compact();
+        }
+
+        byteBuffer.flip();
+        decode(decoder, byteBuffer, charBuffer, true);
+        while (decoder.flush(charBuffer).isOverflow()) {
+            sinkChars(charBuffer);
+        }
+        sinkChars(charBuffer);
+    }
+
+    private void decode(CharsetDecoder decoder, ByteBuffer bytes, CharBuffer chars, boolean endOfInput)
+        throws IOException
+    {
+        CoderResult result;
+        do {
+            result = decoder.decode(bytes, chars, endOfInput);
+            sinkChars(chars);
+        } while (result.isOverflow());
+    }
+
+    private void sinkChars(CharBuffer chars) throws IOException
+    {
+        if (chars.position() > 0) {
+            sink(chars.array(), chars.position());
+            chars.clear();
+        }
+    }
+
     protected void sink(char[] buffer, int len) throws IOException
     {
         // Does nothing - throws away the output
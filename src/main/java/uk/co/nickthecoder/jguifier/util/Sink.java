@@ -10,6 +10,9 @@ import java.io.InputStream;
  * <ul>
  * <li>{@link SimpleSink} - Throws the output away</li>
  * <li>{@link StringBufferSink} - Appends the output to a StringBuffer - Impractical if there is a lot of output!</li>
+ * <li>{@link LineSink} - Passes each line to a Consumer or BlockingQueue as soon as it arrives</li>
+ * <li>{@link TailSink} - Keeps only the end of the output, in a fixed size buffer</li>
+ * <li>{@link ByteSink} - Captures the raw bytes, decoding them only when asked</li>
  * <li>{@link FileSink} - Writes the output to a file</li>
  * <li>{@link Pipe} - Sends the output to the input of another command, in a similar manner to command line pipes |</li>
  * </ul>
@@ -0,0 +1,93 @@
+package uk.co.nickthecoder.jguifier.util;
+
+import java.io.File;
+
+/**
+ * Decorates a File while it is being sorted, remembering the values used by the comparators, such as
+ * {@link FileLister#SIZE_ORDER}, {@link FileLister#LAST_MODIFIED_ORDER} and {@link DirectoriesFirstComparator}.
+ * Each value is looked up the first time it is needed, so sorting n files makes O(n) calls to the file system,
+ * rather than O(n log n). The lower case path used by {@link FileLister#NAME_ORDER} is also remembered, so that
+ * comparisons don't create new Strings.
+ * 
+ * @see FileLister#sort(File[], java.util.Comparator)
+ */
+class SortableFile extends File
+{
+    private static final long serialVersionUID = 1L;
+
+    final File file;
+
+    private String _foldedPath;
+
+    private long _length;
+
+    private boolean _lengthKnown = false;
+
+    private long _lastModified;
+
+    private boolean _lastModifiedKnown = false;
+
+    private byte _type = UNKNOWN;
+
+    private static final byte UNKNOWN = 0;
+    private static final byte DIRECTORY = 1;
+    private static final byte FILE = 2;
+    private static final byte OTHER = 3;
+
+    SortableFile(File file)
+    {
+        super(file.getPath());
+        this.file = file;
+    }
+
+    /**
+     * @return The path in lower case, used by {@link FileLister#NAME_ORDER}.
+     */
+    String getFoldedPath()
+    {
+        if (_foldedPath == null) {
+            _foldedPath = getPath().toLowerCase();
+        }
+        return _foldedPath;
+    }
+
+    @Override
+    public long length()
+    {
+        if (!_lengthKnown) {
+            _length = file.length();
+            _lengthKnown = true;
+        }
+        return _length;
+    }
+
+    @Override
+    public long lastModified()
+    {
+        if (!_lastModifiedKnown) {
+            _lastModified = file.lastModified();
+            _lastModifiedKnown = true;
+        }
+        return _lastModified;
+    }
+
+    @Override
+    public boolean isDirectory()
+    {
+        return type() == DIRECTORY;
+    }
+
+    @Override
+    public boolean isFile()
+    {
+        return type() == FILE;
+    }
+
+    private byte type()
+    {
+        if (_type == UNKNOWN) {
+            _type = file.isDirectory() ? DIRECTORY : file.isFile() ? FILE : OTHER;
+        }
+        return _type;
+    }
+}
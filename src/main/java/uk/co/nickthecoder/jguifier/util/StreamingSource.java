@@ -0,0 +1,92 @@
+package uk.co.nickthecoder.jguifier.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link Source} which writes to the process's stdin in the background, using a shared pool of threads, so
+ * that the process's output can be read at the same time. Without this, a process which writes lots of output
+ * before it has read all of its input would stall, waiting for its output to be read, while we wait for it to
+ * read its input.
+ * <p>
+ * The data is written in chunks as the process reads it, so the input doesn't need to be held in memory.
+ * Sub-classes implement {@link #write(OutputStream)}.
+ * </p>
+ * <p>
+ * If the process ends without reading all of its input (for example "head"), the write fails, which is not
+ * considered to be an error. Other errors are available from {@link #getException()}.
+ * </p>
+ * 
+ * @priority 4
+ */
+public abstract class StreamingSource implements Source
+{
+    private static final ExecutorService WRITERS = Executors.newCachedThreadPool(new DaemonThreadFactory(
+        "Exec-stdin"));
+
+    private Future<?> _future;
+
+    private volatile IOException _exception;
+
+    @Override
+    public void setStream(final OutputStream os)
+    {
+        _exception = null;
+        _future = WRITERS.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    write(os);
+                } catch (IOException e) {
+                    _exception = e;
+                } finally {
+                    try {
+                        os.close();
+                    } catch (IOException e) {
+                        // Do nothing - the process has probably ended.
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the data to the process's stdin. The stream is closed afterwards, so there's no need to close it.
+     * 
+     * @param out
+     *            The process's stdin
+     * @throws IOException
+     */
+    protected abstract void write(OutputStream out) throws IOException;
+
+    /**
+     * Waits until all of the data has been written (or the process has stopped reading it).
+     * 
+     * @throws InterruptedException
+     */
+    public void join() throws InterruptedException
+    {
+        if (_future != null) {
+            try {
+                _future.get();
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return The error which stopped the data being written, or null. Note, this may be because the process
+     *         ended, and stopped reading its input, which isn't necessarily a problem.
+     */
+    public IOException getException()
+    {
+        return _exception;
+    }
+}
@@ -5,7 +5,7 @@ package uk.co.nickthecoder.jguifier.util;
  * 
  * @priority 4
  */
-public class StringBufferSink extends SimpleSink
+public class StringBufferSink extends SimpleSink implements BufferingSink
 {
     private StringBuffer _stringBuffer;
 
@@ -33,6 +33,15 @@ public class StringBufferSink extends SimpleSink
         return _stringBuffer;
     }
 
+    /**
+     * @return Two bytes per character in the StringBuffer's capacity.
+     */
+    @Override
+    public long getBufferedBytes()
+    {
+        return _stringBuffer.capacity() * 2L;
+    }
+
     /**
      * @return The contents of the StringBuffer
      */
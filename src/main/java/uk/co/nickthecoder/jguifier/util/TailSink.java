@@ -0,0 +1,152 @@
+package uk.co.nickthecoder.jguifier.util;
+
+/**
+ * Keeps only the end of the output, in a fixed size buffer, so that a command which produces lots of output (such
+ * as a chatty, long running process) uses a predictable amount of memory. Useful when only the last few lines
+ * are needed, for example, to report the error messages from a failed command :
+ * 
+ * <pre>
+ * <code>
+ * TailSink errors = new TailSink(4096).maxLines(10);
+ * new Exec("make").stderr(errors).run();
+ * System.err.println(errors);
+ * </code>
+ * </pre>
+ * 
+ * @priority 4
+ */
+public class TailSink extends SimpleSink implements BufferingSink
+{
+    private final char[] _ring;
+
+    /**
+     * The index into _ring where the next char will be written.
+     */
+    private int _end = 0;
+
+    private long _total = 0;
+
+    private int _maxLines = Integer.MAX_VALUE;
+
+    /**
+     * @param capacity
+     *            The maximum number of characters to keep.
+     */
+    public TailSink(int capacity)
+    {
+        _ring = new char[capacity];
+    }
+
+    /**
+     * Keep at most this many lines (as well as being limited by the capacity).
+     * 
+     * @param value
+     * @return this
+     */
+    public TailSink maxLines(int value)
+    {
+        _maxLines = value;
+        return this;
+    }
+
+    public void setMaxLines(int value)
+    {
+        _maxLines = value;
+    }
+
+    public int getMaxLines()
+    {
+        return _maxLines;
+    }
+
+    public int getCapacity()
+    {
+        return _ring.length;
+    }
+
+    /**
+     * @return Two bytes per character of capacity. The buffer is allocated up front, so this never changes.
+     */
+    @Override
+    public long getBufferedBytes()
+    {
+        return _ring.length * 2L;
+    }
+
+    /**
+     * @return The total number of characters of output, including those which have been discarded.
+     */
+    public synchronized long getTotal()
+    {
+        return _total;
+    }
+
+    /**
+     * @return true if the beginning of the output has been discarded.
+     */
+    public synchronized boolean isTruncated()
+    {
+        return _total > length();
+    }
+
+    @Override
+    protected synchronized void sink(char[] buffer, int len)
+    {
+        _total += len;
+        int capacity = _ring.length;
+        if (capacity == 0) {
+            return;
+        }
+
+        int start = 0;
+        if (len > capacity) {
+            start = len - capacity;
+            len = capacity;
+        }
+        int first = Math.min(len, capacity - _end);
+        System.arraycopy(buffer, start, _ring, _end, first);
+        System.arraycopy(buffer, start + first, _ring, 0, len - first);
+        _end = (_end + len) % capacity;
+    }
+
+    private int length()
+    {
+        return (int) Math.min(_total, _ring.length);
+    }
+
+    private char charAt(int index)
+    {
+        return _ring[(_end - length() + index + _ring.length) % _ring.length];
+    }
+
+    /**
+     * @return The end of the output, limited to {@link #getCapacity()} characters, and {@link #getMaxLines()}
+     *         lines. If the capacity has been reached, then the first line is likely to be incomplete.
+     */
+    @Override
+    public synchronized String toString()
+    {
+        int length = length();
+
+        int from = 0;
+        if (_maxLines < Integer.MAX_VALUE) {
+            // Count new lines backwards from the end, ignoring a final line terminator.
+            int lines = 0;
+            for (int i = length - 2; i >= 0; i--) {
+                if (charAt(i) == '\n') {
+                    lines++;
+                    if (lines >= _maxLines) {
+                        from = i + 1;
+                        break;
+                    }
+                }
+            }
+        }
+
+        StringBuilder buffer = new StringBuilder(length - from);
+        for (int i = from; i < length; i++) {
+            buffer.append(charAt(i));
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,67 @@
+package uk.co.nickthecoder.jguifier.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies everything that is read to an OutputStream. Used by {@link Exec} to keep a copy of a process's output
+ * for a {@link CachePolicy}, while the output is passed on to the Sink as usual.
+ * <p>
+ * The number of bytes copied is limited, and the limit may be shared by several streams (stdout and stderr). Once
+ * it is exceeded, nothing more is copied, and the remaining count stays negative, so the copy is known to be
+ * incomplete.
+ * </p>
+ */
+class TeeInputStream extends FilterInputStream
+{
+    private final OutputStream _copy;
+
+    private final AtomicLong _remaining;
+
+    TeeInputStream(InputStream in, OutputStream copy, AtomicLong remaining)
+    {
+        super(in);
+        _copy = copy;
+        _remaining = remaining;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        int b = super.read();
+        if ((b != -1) && reserve(1)) {
+            _copy.write(b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int len) throws IOException
+    {
+        int amount = super.read(buffer, offset, len);
+        if ((amount > 0) && reserve(amount)) {
+            _copy.write(buffer, offset, amount);
+        }
+        return amount;
+    }
+
+    /**
+     * @return false if copying the bytes would exceed the limit (or it has already been exceeded).
+     */
+    private boolean reserve(int amount)
+    {
+        return (_remaining.get() >= 0) && (_remaining.addAndGet(-amount) >= 0);
+    }
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+        // Read, rather than skip, so that the skipped bytes are copied.
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        int amount = read(buffer, 0, buffer.length);
+        return Math.max(amount, 0);
+    }
+}
@@ -2,18 +2,34 @@ package uk.co.nickthecoder.jguifier.test;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import uk.co.nickthecoder.jguifier.util.ByteSink;
+import uk.co.nickthecoder.jguifier.util.CachePolicy;
 import uk.co.nickthecoder.jguifier.util.Exec;
+import uk.co.nickthecoder.jguifier.util.ExecBatch;
 import uk.co.nickthecoder.jguifier.util.ExecException;
+import uk.co.nickthecoder.jguifier.util.ExecListener;
+import uk.co.nickthecoder.jguifier.util.ExecResult;
+import uk.co.nickthecoder.jguifier.util.ExecStats;
+import uk.co.nickthecoder.jguifier.util.OutputEvent;
+import uk.co.nickthecoder.jguifier.util.OutputEvents;
 import uk.co.nickthecoder.jguifier.util.Pipe;
+import uk.co.nickthecoder.jguifier.util.ShellPool;
+import uk.co.nickthecoder.jguifier.util.ShellResult;
 
 public class ExecLinuxTest
 {
@@ -43,20 +59,23 @@ public class ExecLinuxTest
 	@Test
     public void simpleExec()
     {
-    	String ls = new Exec( "ls", baseDir ).stdout().run().getStdout().toString();
-    	assertEquals( lsResults, ls );
+    	Exec ls = new Exec( "ls", baseDir ).stdout();
+    	ls.run();
+    	assertEquals( lsResults, ls.getStdout().toString() );
     }
     
 	@Test
 	public void input()
 		throws IOException
 	{
-		String head = new Exec( "head", "-n", "1" ).stdin( "Foo\nBar\n" ).stdout().run().getStdout().toString();
-		assertEquals( "Foo\n", head );
+		Exec head = new Exec( "head", "-n", "1" ).stdin( "Foo\nBar\n" ).stdout();
+		head.run();
+		assertEquals( "Foo\n", head.getStdout().toString() );
 		
 		new Exec( "cat" ).stdin( "Hello World" ).stdout( new File( tmpResults ) ).run();
-		String hello = new Exec( "cat", tmpResults ).stdout().run().getStdout().toString();
-		assertEquals( "Hello World", hello );
+		Exec hello = new Exec( "cat", tmpResults ).stdout();
+		hello.run();
+		assertEquals( "Hello World", hello.getStdout().toString() );
 		
 	}
 	
@@ -65,8 +84,19 @@ public class ExecLinuxTest
     	throws IOException
 	{
     	new Exec( "ls", baseDir ).stdout( new File(tmpResults) ).run();
-    	String ls2 = new Exec( "cat", tmpResults ).stdout().run().getStdout().toString();
-    	assertEquals( lsResults, ls2 );
+    	Exec ls2 = new Exec( "cat", tmpResults ).stdout();
+    	ls2.run();
+    	assertEquals( lsResults, ls2.getStdout().toString() );
+    }
+    
+    @Test
+    public void redirectInput()
+    	throws IOException
+	{
+    	new Exec( "ls", baseDir ).stdout( new File(tmpResults) ).run();
+    	Exec sorted = new Exec( "sort", "-r" ).stdin( new File(tmpResults) ).stdout();
+    	sorted.run();
+    	assertEquals( "results\nfoo\nbar\n", sorted.getStdout().toString() );
     }
     
     @Test
@@ -77,104 +107,481 @@ public class ExecLinuxTest
     	
     	ls.stdout( new Pipe( head ) ).run();
     	
-    	assertEquals( "bar\n", head.getStdout() );
+    	assertEquals( "bar\n", head.getStdout().toString() );
+    }
+    
+    @Test
+    public void pipeline()
+    {
+    	Exec cat = new Exec( "cat" ).stdout();
+    	Exec upper = new Exec( "tr", "a-z", "A-Z" ).stdout( cat );
+    	new Exec( "echo", "hello" ).stdout( upper ).run();
+
+    	assertEquals( "HELLO\n", cat.getStdout().toString() );
     }
     
     @Test
     public void buildArgs()
     {
-    	Exec exec = new Exec( "echo", "Hello" ).add( "World" ).stdout().run();
-    	assertEquals( "Hello World\n", exec.getStdout() );
+    	Exec exec = new Exec( "echo", "Hello" ).add( "World" ).stdout();
+    	exec.run();
+    	assertEquals( "Hello World\n", exec.getStdout().toString() );
     }
     
 	@Test(expected=ExecException.class)
 	public void nullArgument()
 	{
-    	Exec exec2 = new Exec( "echo" ).add( "Hello" ).add( null ).add( "World" ).stdout().run();
-    	assertEquals( "Hello World\n", exec2.getStdout() );
+    	Exec exec2 = new Exec( "echo" ).add( "Hello" ).add( null ).add( "World" ).stdout();
+    	exec2.run();
+    	assertEquals( "Hello World\n", exec2.getStdout().toString() );
     }
 	
 	@Test
 	public void ignoreNullArgument()
 	{
-		Exec exec2 = new Exec( "echo" ).add( "Hello" ).add( null ).add( "World" ).removeNullArgs().stdout().run();
-    	assertEquals( "Hello World\n", exec2.getStdout() );
+		Exec exec2 = new Exec( "echo" ).add( "Hello" ).add( null ).add( "World" ).removeNullArgs().stdout();
+		exec2.run();
+    	assertEquals( "Hello World\n", exec2.getStdout().toString() );
     }
 	
 	@Test
 	public void setDir()
 	{
-		String tmp = new Exec( "pwd" ).dir( new File( "/tmp" ) ).stdout().run().getStdout().toString();
-		assertEquals( "/tmp\n", tmp );
+		Exec tmp = new Exec( "pwd" ).dir( new File( "/tmp" ) ).stdout();
+		tmp.run();
+		assertEquals( "/tmp\n", tmp.getStdout().toString() );
 		
-		String root = new Exec( "pwd" ).dir( new File( baseDir ) ).stdout().run().getStdout().toString();
-		assertEquals( baseDir + "\n", root );
+		Exec root = new Exec( "pwd" ).dir( new File( baseDir ) ).stdout();
+		root.run();
+		assertEquals( baseDir + "\n", root.getStdout().toString() );
 		
 	}
 	
 	@Test
 	public void env()
 	{
-		String hello = new Exec( "bash", "-c", "echo ${FOO}" ).var( "FOO", "Hello" ).stdout().run().getStdoutLine();
-		assertEquals( hello, "Hello" );
+		Exec hello = new Exec( "bash", "-c", "echo ${FOO}" ).var( "FOO", "Hello" ).stdout();
+		hello.run();
+		assertEquals( hello.getStdoutLine(), "Hello" );
 		
-		String world = new Exec( "bash", "-c", "export" ).clearEnv().var( "FOO", "World" ).stdout().run().getStdoutLine();
+		Exec world = new Exec( "bash", "-c", "export" ).clearEnv().var( "FOO", "World" ).stdout();
+		world.run();
 		String expected =  "declare -x FOO=\"World\"";
-		assertEquals( expected, world );
-		assertTrue( expected.length() == world.length() );
+		assertEquals( expected, world.getStdoutLine() );
 		
-		String allVars = new Exec( "bash", "-c", "export" ).var( "FOO", "World" ).stdout().run().getStdoutLine();
-		assertTrue( expected.length() != allVars.length() );
+		Exec allVars = new Exec( "bash", "-c", "export" ).var( "FOO", "World" ).stdout();
+		allVars.run();
+		assertTrue( allVars.getStdoutAsArray().length > world.getStdoutAsArray().length );
 	}
 	
 	@Test
 	public void stderr()
 	{
 		String dir =  baseDir + "/XXX";
-		String noSuch = new Exec( "ls", dir ).stderr().run().getStderrLine();
-		assertEquals( "ls: cannot access " + dir + ": No such file or directory", noSuch );
+		Exec noSuch = new Exec( "ls", dir ).stderr();
+		noSuch.run();
+		// Newer versions of ls quote the file name.
+		assertEquals( "ls: cannot access " + dir + ": No such file or directory", noSuch.getStderrLine().replace( "'", "" ) );
 	}
 	
 	@Test
 	public void exitStatus()
 	{
-		int exit1 = new Exec( "ls", baseDir ).run().getExitStatus();
-		assertEquals( 0, exit1 );
+		Exec exit1 = new Exec( "ls", baseDir );
+		exit1.run();
+		assertEquals( 0, exit1.getExitStatus() );
 		
-		int exit2 = new Exec( "ls", baseDir+ "/XXX" ).run().getExitStatus();
-		assertEquals( 2, exit2 );
+		Exec exit2 = new Exec( "ls", baseDir+ "/XXX" );
+		exit2.run();
+		assertEquals( 2, exit2.getExitStatus() );
 	}
 	
 	@Test
 	public void stdoutArray()
 	{
-		String[] ls = new Exec( "ls", baseDir ).stdout().run().getStdoutAsArray();
-		assertArrayEquals( new String[] { "bar", "foo", "results" }, ls );
+		Exec ls = new Exec( "ls", baseDir ).stdout();
+		ls.run();
+		assertArrayEquals( new String[] { "bar", "foo", "results" }, ls.getStdoutAsArray() );
 	}
 	
 	@Test 
 	public void throwNoError()
 	{
-		int exit1 = new Exec( "ls", baseDir ).throwOnError().run().getExitStatus();
-		assertEquals( 0, exit1 );
+		Exec exit1 = new Exec( "ls", baseDir ).throwOnError();
+		exit1.run();
+		assertEquals( 0, exit1.getExitStatus() );
 	}
 	
 	@Test(expected=ExecException.class)
 	public void throwOnError()
 	{		
-		int exit2 = new Exec( "ls", baseDir+ "/XXX" ).throwOnError().run().getExitStatus();
-		assertEquals( 2, exit2 );
+		Exec exit2 = new Exec( "ls", baseDir+ "/XXX" ).throwOnError();
+		exit2.run();
+		assertEquals( 2, exit2.getExitStatus() );
 	}
 
 	@Test
 	public void timeout()
 	{
-		Exec.State state1 = new Exec( "sleep", "1" ).timeout( 500 ).run().getState();
-		assertEquals( Exec.State.TIMED_OUT, state1 );
+		Exec state1 = new Exec( "sleep", "1" ).timeout( 500 );
+		state1.run();
+		assertEquals( Exec.State.TIMED_OUT, state1.getState() );
+
+		Exec state2 = new Exec( "sleep", "1" ).timeout( 1500 );
+		state2.run();
+		assertEquals( Exec.State.COMPLETED, state2.getState() );
+
+	}
+
+	@Test
+	public void timeoutKillsChildren()
+		throws InterruptedException
+	{
+		// bash ignores SIGTERM, so it has to be killed after the grace period, along with its child.
+		Exec exec = new Exec( "bash", "-c", "trap '' TERM; sleep 60 & wait" ).timeout( 200 ).gracePeriod( 200 );
+		long start = System.currentTimeMillis();
+		exec.run();
+		assertEquals( Exec.State.TIMED_OUT, exec.getState() );
+		assertTrue( System.currentTimeMillis() - start < 5000 );
+
+		Thread.sleep( 200 );
+		Exec ps = new Exec( "bash", "-c", "ps -eo args | grep -c '^sleep [6]0$'" ).stdout();
+		ps.run();
+		assertEquals( "0", ps.getStdoutLine() );
+	}
+
+	@Test
+	public void async()
+		throws Exception
+	{
+		ExecResult result = new Exec( "echo", "Hello" ).stdout().runAsync().get();
+		assertEquals( 0, result.getExitStatus() );
+		assertEquals( "Hello\n", result.getStdout().toString() );
+
+		ExecResult timedOut = new Exec( "sleep", "1" ).timeout( 500 ).runAsync().get();
+		assertEquals( Exec.State.TIMED_OUT, timedOut.getState() );
+	}
+
+	@Test
+	public void asyncWithoutWaitingThreads()
+		throws Exception
+	{
+		try {
+			Process.class.getMethod( "onExit" );
+		} catch ( NoSuchMethodException e ) {
+			// Java 8 uses a thread to wait for each process.
+			return;
+		}
+		// The output goes directly to a file, so there are no pump threads either.
+		List<CompletableFuture<ExecResult>> futures = new ArrayList<CompletableFuture<ExecResult>>();
+		for ( int i = 0; i < 10; i ++ ) {
+			futures.add( new Exec( "sleep", "0.5" ).stdout( new File( "/dev/null" ) ).stderr( new File( "/dev/null" ) )
+				.runAsync() );
+		}
+		Thread.sleep( 100 );
+		for ( StackTraceElement[] stack : Thread.getAllStackTraces().values() ) {
+			for ( StackTraceElement element : stack ) {
+				assertFalse( element.getMethodName().equals( "waitFor" ) && element.getClassName().contains( "Process" ) );
+			}
+		}
+		for ( CompletableFuture<ExecResult> future : futures ) {
+			assertEquals( 0, future.get().getExitStatus() );
+		}
+	}
+
+	@Test
+	public void batch()
+	{
+		ExecBatch batch = new ExecBatch().concurrency( 4 );
+		for ( int i = 0; i < 8; i ++ ) {
+			batch.add( new Exec( "sleep", "0.5" ) );
+		}
+		long start = System.currentTimeMillis();
+		assertEquals( 8, batch.run().size() );
+		long duration = System.currentTimeMillis() - start;
+		assertTrue( duration < 2000 );
+		assertTrue( duration >= 1000 );
+	}
+
+	@Test
+	public void batchCollectAll()
+	{
+		List<ExecResult> results = new ExecBatch().concurrency( 2 )
+			.add( new Exec( "echo", "Hello" ).stdout() )
+			.add( new Exec( "ls", baseDir + "/XXX" ) )
+			.add( new Exec( "echo", "World" ).stdout() )
+			.run();
+
+		assertEquals( 3, results.size() );
+		assertEquals( "Hello\n", results.get( 0 ).getStdout().toString() );
+		assertFalse( results.get( 1 ).isSuccess() );
+		assertEquals( "World\n", results.get( 2 ).getStdout().toString() );
+	}
+
+	@Test(expected=ExecException.class)
+	public void batchFailFast()
+	{
+		ExecBatch batch = new ExecBatch().concurrency( 2 ).failFast();
+		batch.add( new Exec( "ls", baseDir + "/XXX" ) );
+		for ( int i = 0; i < 10; i ++ ) {
+			batch.add( new Exec( "sleep", "10" ) );
+		}
+		batch.run();
+	}
+
+	@Test
+	public void stats()
+	{
+		final int[] events = new int[2];
+		Exec exec = new Exec( "cat" ).stdin( "Hello\n" ).stdout().stderr().listener( new ExecListener() {
+			@Override
+			public void started( Exec exec )
+			{
+				events[0] ++;
+			}
+
+			@Override
+			public void finished( Exec exec )
+			{
+				events[1] ++;
+			}
+		} );
+		exec.run();
+
+		ExecStats stats = exec.getStats();
+		assertEquals( 6, stats.getStdinBytes() );
+		assertEquals( 6, stats.getStdoutBytes() );
+		assertEquals( 0, stats.getStderrBytes() );
+		assertTrue( stats.getStdoutBuffered() > 0 );
+		assertTrue( stats.getWallNanos() >= stats.getSpawnNanos() );
+		assertEquals( 1, events[0] );
+		assertEquals( 1, events[1] );
+	}
+
+	@Test
+	public void shellPool()
+		throws Exception
+	{
+		ShellPool pool = new ShellPool( 2 );
+		try {
+			ShellResult result = pool.run( "ls " + ShellPool.quote( baseDir ) );
+			assertEquals( 0, result.getExitStatus() );
+			assertEquals( lsResults, result.getStdout() );
+
+			result = pool.run( "printf 'no new line'; echo error >&2; false" );
+			assertEquals( 1, result.getExitStatus() );
+			assertEquals( "no new line", result.getStdout() );
+			assertEquals( "error\n", result.getStderr() );
+
+			for ( int i = 0; i < 100; i ++ ) {
+				assertEquals( i + "\n", pool.run( "echo " + i ).getStdout() );
+			}
+		} finally {
+			pool.stop();
+		}
+	}
+
+	@Test(expected=IOException.class)
+	public void shellPoolExit()
+		throws Exception
+	{
+		ShellPool pool = new ShellPool( 1 );
+		try {
+			pool.run( "exit 1" );
+		} finally {
+			pool.stop();
+		}
+	}
+
+	@Test
+	public void environment()
+	{
+		Exec exec = new Exec( "bash", "-c", "echo \"$FOO:$HOME\"" ).var( "FOO", "Hello" ).stdout();
+		exec.run();
+		assertEquals( "Hello:" + System.getenv( "HOME" ), exec.getStdoutLine() );
+
+		exec = new Exec( "bash", "-c", "echo \"$FOO:$HOME\"" ).var( "HOME", null ).stdout();
+		exec.run();
+		assertEquals( ":", exec.getStdoutLine() );
+
+		exec = new Exec( "env" ).clearEnv().var( "FOO", "World" ).stdout();
+		exec.run();
+		assertArrayEquals( new String[] { "FOO=World" }, exec.getStdoutAsArray() );
+	}
+
+	@Test
+	public void stdinLines()
+	{
+		Iterator<String> lines = new Iterator<String>() {
+			int i = 0;
+
+			@Override
+			public boolean hasNext()
+			{
+				return i < 100000;
+			}
+
+			@Override
+			public String next()
+			{
+				return String.valueOf( i ++ );
+			}
+		};
+		Exec exec = new Exec( "tail", "-1" ).stdin( lines ).stdout();
+		exec.run();
+		assertEquals( "99999", exec.getStdoutLine() );
+	}
+
+	@Test
+	public void stdinWhileReadingStderr()
+	{
+		// More than a pipe's worth of input, copied to stderr, so stdin must be written while stderr is read.
+		StringBuilder input = new StringBuilder();
+		for ( int i = 0; i < 100000; i ++ ) {
+			input.append( "line " ).append( i ).append( "\n" );
+		}
+		ByteSink errors = new ByteSink();
+		new Exec( "bash", "-c", "cat >&2" ).stdin( input.toString() ).stderr( errors ).timeout( 10000 ).run();
+		assertEquals( input.length(), errors.size() );
+	}
+
+	@Test
+	public void events()
+		throws InterruptedException
+	{
+		OutputEvents events = new OutputEvents();
+		new Exec( "bash", "-c", "echo one; sleep 0.1; echo two >&2; sleep 0.1; echo three" ).events( events ).runAsync();
+
+		StringBuilder log = new StringBuilder();
+		OutputEvent event;
+		long previous = 0;
+		while ( ( event = events.take() ) != null ) {
+			log.append( event.isStderr() ? "E:" : "O:" ).append( new String( event.getBytes() ) );
+			assertTrue( event.getNanoTime() >= previous );
+			previous = event.getNanoTime();
+		}
+		assertEquals( "O:one\nE:two\nO:three\n", log.toString() );
+		assertTrue( events.isFinished() );
+	}
+
+	@Test
+	public void eventsUnread()
+		throws InterruptedException
+	{
+		// stderr is merged, so only the stdout sink is run.
+		OutputEvents events = new OutputEvents();
+		new Exec( "bash", "-c", "echo one; echo two >&2" ).events( events ).mergeStderr().runAsync();
+		StringBuilder log = new StringBuilder();
+		OutputEvent event;
+		while ( ( event = events.take() ) != null ) {
+			assertFalse( event.isStderr() );
+			log.append( new String( event.getBytes() ) );
+		}
+		assertEquals( "one\ntwo\n", log.toString() );
+
+		// The process can't be started, so neither sink is run.
+		events = new OutputEvents();
+		new Exec( "noSuchCommandForExecLinuxTest" ).events( events ).runAsync();
+		assertEquals( null, events.take() );
+		assertTrue( events.isFinished() );
+	}
+
+	@Test
+	public void cached()
+		throws Exception
+	{
+		// Not inside baseDir, as other tests list its contents.
+		File dir = Files.createTempDirectory( "ExecLinuxTest" ).toFile();
+		try {
+			CachePolicy cache = new CachePolicy().directory( dir );
+
+			Exec first = new Exec( "bash", "-c", "date +%N; echo error >&2" ).stdout().stderr().cached( cache );
+			first.run();
+			assertFalse( first.isFromCache() );
+
+			Exec second = new Exec( "bash", "-c", "date +%N; echo error >&2" ).stdout().stderr().cached( cache );
+			second.run();
+			assertTrue( second.isFromCache() );
+			assertEquals( first.getStdoutLine(), second.getStdoutLine() );
+			assertEquals( "error\n", second.getStderr().toString() );
+
+			// Read back from disk, by a different CachePolicy
+			Exec third = new Exec( "bash", "-c", "date +%N; echo error >&2" ).stdout().stderr()
+				.cached( new CachePolicy().directory( dir ) );
+			third.run();
+			assertTrue( third.isFromCache() );
+			assertEquals( first.getStdoutLine(), third.getStdoutLine() );
+
+			// Different input
+			Exec input = new Exec( "cat" ).stdin( "Hello" ).stdout().cached( cache );
+			input.run();
+			input = new Exec( "cat" ).stdin( "World" ).stdout().cached( cache );
+			input.run();
+			assertFalse( input.isFromCache() );
+			assertEquals( "World", input.getStdoutLine() );
+
+			// Only files written by a CachePolicy are cleared
+			File other = new File( dir, "other.txt" );
+			new Exec( "echo", "other" ).stdout( other ).run();
+			cache.clear();
+			assertEquals( 1, dir.list().length );
+			assertTrue( other.exists() );
+
+		} finally {
+			for ( File file : dir.listFiles() ) {
+				file.delete();
+			}
+			dir.delete();
+		}
+	}
+
+	@Test
+	public void cachedLimits()
+		throws Exception
+	{
+		File dir = Files.createTempDirectory( "ExecLinuxTest" ).toFile();
+		try {
+			// Too large
+			CachePolicy cache = new CachePolicy().maxEntryBytes( 1000 );
+			new Exec( "seq", "1000" ).stdout().cached( cache ).run();
+			Exec large = new Exec( "seq", "1000" ).stdout().cached( cache );
+			large.run();
+			assertFalse( large.isFromCache() );
+			assertEquals( 1000, large.getStdoutAsArray().length );
+
+			// Stopped, even though failures are cached
+			cache = new CachePolicy().cacheFailures();
+			final Exec stopped = new Exec( "bash", "-c", "echo partial; sleep 10" ).stdout().cached( cache );
+			new Thread( new Runnable() {
+				@Override
+				public void run()
+				{
+					try {
+						Thread.sleep( 500 );
+					} catch ( InterruptedException e ) {
+						// Do nothing
+					}
+					stopped.stop();
+				}
+			} ).start();
+			stopped.run();
+			Exec again = new Exec( "bash", "-c", "echo partial; sleep 10" ).stdout().cached( cache ).timeout( 100 );
+			again.run();
+			assertFalse( again.isFromCache() );
 
-		Exec.State state2 = new Exec( "sleep", "1" ).timeout( 1500 ).run().getState();
-		assertEquals( Exec.State.COMPLETED, state2 );
+			// The least recently used are deleted from disk
+			cache = new CachePolicy().directory( dir ).maxDiskEntries( 3 );
+			for ( int i = 0; i < 5; i ++ ) {
+				new Exec( "echo", String.valueOf( i ) ).stdout().cached( cache ).run();
+			}
+			assertEquals( 3, dir.list().length );
 
+		} finally {
+			for ( File file : dir.listFiles() ) {
+				file.delete();
+			}
+			dir.delete();
+		}
 	}
 
 }
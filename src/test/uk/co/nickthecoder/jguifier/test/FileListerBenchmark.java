@@ -0,0 +1,70 @@
+package uk.co.nickthecoder.jguifier.test;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import uk.co.nickthecoder.jguifier.util.FileLister;
+
+/**
+ * Compares the time taken to walk a large directory tree serially, and in parallel, and the time taken to filter
+ * the results using {@link FileLister#accept(File)} and {@link FileLister#compileFilter()}.
+ * Not part of the {@link TestSuite}, run it by hand :
+ * 
+ * <pre>
+ * java uk.co.nickthecoder.jguifier.test.FileListerBenchmark DIRECTORY [DEPTH] [THREADS]
+ * </pre>
+ */
+public class FileListerBenchmark
+{
+	private static final int RUNS = 5;
+
+	public static void main( String[] argv )
+	{
+		File directory = new File( argv.length > 0 ? argv[0] : System.getProperty( "user.home" ) );
+		int depth = argv.length > 1 ? Integer.parseInt( argv[1] ) : 6;
+		int threads = argv.length > 2 ? Integer.parseInt( argv[2] ) : Runtime.getRuntime().availableProcessors();
+
+		// Warm up, so that the first timed run isn't penalised by a cold disk cache.
+		new FileLister().depth( depth ).listFiles( directory );
+
+		time( "serial", new FileLister().depth( depth ), directory );
+		time( "parallel(" + threads + ")", new FileLister().depth( depth ).parallel( threads ), directory );
+
+		List<File> files = new FileLister().depth( depth ).includeDirectories().includeHidden().enterHidden().listFiles( directory );
+		FileLister lister = new FileLister().extensions( "txt", "png", "jpg", "java" ).filePattern( Pattern.compile( "[a-m].*" ) );
+		time( "accept", lister, files );
+		time( "compileFilter", lister.compileFilter(), files );
+	}
+
+	private static void time( String label, FileFilter filter, List<File> files )
+	{
+		long best = Long.MAX_VALUE;
+		int count = 0;
+		for ( int i = 0; i < RUNS; i ++ ) {
+			long start = System.nanoTime();
+			count = 0;
+			for ( File file : files ) {
+				if ( filter.accept( file ) ) {
+					count ++;
+				}
+			}
+			best = Math.min( best, System.nanoTime() - start );
+		}
+		System.out.println( label + " : accepted " + count + " of " + files.size() + " in " + ( best / 1000 ) + " us (best of " + RUNS + ")" );
+	}
+
+	private static void time( String label, FileLister lister, File directory )
+	{
+		long best = Long.MAX_VALUE;
+		int count = 0;
+		for ( int i = 0; i < RUNS; i ++ ) {
+			long start = System.nanoTime();
+			List<File> results = lister.listFiles( directory );
+			best = Math.min( best, System.nanoTime() - start );
+			count = results.size();
+		}
+		System.out.println( label + " : " + count + " files in " + ( best / 1000000 ) + " ms (best of " + RUNS + ")" );
+	}
+}
@@ -1,5 +1,6 @@
 package uk.co.nickthecoder.jguifier.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -7,14 +8,21 @@ import static org.junit.Assert.assertTrue;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import uk.co.nickthecoder.jguifier.util.AttributedFile;
+import uk.co.nickthecoder.jguifier.util.DirectoriesFirstComparator;
+import uk.co.nickthecoder.jguifier.util.DirectoryIndex;
 import uk.co.nickthecoder.jguifier.util.Exec;
 import uk.co.nickthecoder.jguifier.util.FileLister;
+import uk.co.nickthecoder.jguifier.util.ReverseComparator;
 
 public class FileListerTest {
 
@@ -257,4 +265,117 @@ public class FileListerTest {
 
 	}
 	
+	@Test
+	public void parallel()
+		throws IOException
+	{
+		List<File> list1 = new FileLister().depth( 2 ).parallel( 4 ).listFiles( baseDir );
+		assertSameFiles( list1, bar, earliest, early, foo, late, dir1_a, dir1_b );
+
+		List<File> list2 = new FileLister().depth( 2 ).enterHidden().includeHidden().includeDirectories().parallel( 4 ).listFiles( baseDir );
+		assertSameFiles( list2, hidden, hiddenDir, hiddenDir_a, bar, dir1, dir1_a, dir1_b, dir1_dira, dir1_dirb, dir1_dirc, dir2, earliest, early, foo, late );
+
+		List<File> serial = new FileLister().depth( 3 ).includeDirectories().sortTogether().listFiles( baseDir );
+		List<File> parallel = new FileLister().depth( 3 ).includeDirectories().sortTogether().parallel( 4 ).listFiles( baseDir );
+		assertEquals( serial, parallel );
+	}
+	
+	@Test
+	public void cacheAttributes()
+		throws IOException
+	{
+		List<File> list1 = new FileLister().depth( 2 ).cacheAttributes().listFiles( baseDir );
+		assertSameFiles( list1, bar, earliest, early, foo, late, dir1_a, dir1_b );
+
+		List<File> list2 = new FileLister().depth( 2 ).enterHidden().includeHidden().includeDirectories().cacheAttributes().listFiles( baseDir );
+		assertSameFiles( list2, hidden, hiddenDir, hiddenDir_a, bar, dir1, dir1_a, dir1_b, dir1_dira, dir1_dirb, dir1_dirc, dir2, earliest, early, foo, late );
+
+		List<File> list3 = new FileLister().includeDirectories().directoriesFirst().cacheAttributes().listFiles( baseDir );
+		assertSameFiles( list3, dir1, dir2, bar, earliest, early, foo, late );
+	}
+	
+	@Test
+	public void lazy()
+		throws IOException
+	{
+		FileLister lister = new FileLister().depth( 2 ).enterHidden().includeHidden().includeDirectories().includeBase();
+		List<File> streamed = lister.stream( baseDir ).collect( Collectors.toList() );
+		assertEquals( lister.listFiles( baseDir ), streamed );
+
+		Iterator<File> iterator = new FileLister().depth( 2 ).iterator( baseDir );
+		assertEquals( bar, iterator.next() );
+		assertEquals( earliest, iterator.next() );
+	}
+	
+	@Test
+	public void sort()
+	{
+		File[] files = new File[] { foo, dir2, bar, dir1, late };
+		FileLister.sort( files, new DirectoriesFirstComparator( new ReverseComparator<File>( FileLister.NAME_ORDER ) ) );
+		assertArrayEquals( new File[] { dir2, dir1, late, foo, bar }, files );
+	}
+	
+	@Test
+	public void compileFilter()
+	{
+		FileLister lister = new FileLister().depth( 2 ).includeDirectories().extensions( "jpg", "png" );
+		FileFilter filter = lister.compileFilter();
+		for ( File file : new FileLister().depth( 2 ).includeHidden().enterHidden().includeDirectories().listFiles( baseDir ) ) {
+			assertEquals( lister.accept( file ), filter.accept( file ) );
+		}
+	}
+	
+	@Test
+	public void index()
+		throws IOException
+	{
+		File indexFile = File.createTempFile( "FileListerTest", ".index" );
+		indexFile.delete();
+		File tree = Files.createTempDirectory( "FileListerTest" ).toFile();
+		try {
+			// Directories modified just before they are indexed aren't trusted, so make them look old.
+			long old = System.currentTimeMillis() - 60000;
+			for ( String name : new String[] { "a", "b", "sub/c", "sub/deeper/d" } ) {
+				File file = new File( tree, name );
+				file.getParentFile().mkdirs();
+				file.createNewFile();
+			}
+			for ( String name : new String[] { "sub/deeper", "sub", "" } ) {
+				new File( tree, name ).setLastModified( old );
+			}
+
+			FileLister fresh = new FileLister().depth( 3 ).includeDirectories();
+			List<File> expected = fresh.listFiles( tree );
+			
+			DirectoryIndex coldIndex = new DirectoryIndex( indexFile );
+			List<File> cold = new FileLister().depth( 3 ).includeDirectories().index( coldIndex ).listFiles( tree );
+			assertEquals( expected, cold );
+			assertEquals( 3, coldIndex.getReads() );
+			assertTrue( indexFile.exists() );
+
+			DirectoryIndex warmIndex = new DirectoryIndex( indexFile );
+			List<File> warm = new FileLister().depth( 3 ).includeDirectories().index( warmIndex ).listFiles( tree );
+			assertEquals( expected, warm );
+			// Every directory was listed from the index.
+			assertEquals( 0, warmIndex.getReads() );
+
+			List<File> attributed = new FileLister().depth( 3 ).includeDirectories().cacheAttributes()
+				.index( warmIndex ).listFiles( tree );
+			assertEquals( expected, attributed );
+			assertTrue( attributed.get( 0 ) instanceof AttributedFile );
+			assertEquals( 0, warmIndex.getReads() );
+
+			// Directories which have been deleted are dropped from the index when it is saved.
+			assertEquals( 3, warmIndex.size() );
+			new Exec( "rm", "-r", new File( tree, "sub/deeper" ).getPath() ).run();
+			// "sub" has changed, so is re-read, but "sub/deeper" is no longer visited.
+			new FileLister().depth( 3 ).includeDirectories().index( new DirectoryIndex( indexFile ) ).listFiles( tree );
+			assertEquals( 2, new DirectoryIndex( indexFile ).size() );
+
+		} finally {
+			new Exec( "rm", "-r", tree.getPath() ).run();
+			indexFile.delete();
+		}
+	}
+	
 }
@@ -0,0 +1,147 @@
+package uk.co.nickthecoder.jguifier.test;
+
+import java.io.InputStream;
+
+import uk.co.nickthecoder.jguifier.util.BufferPool;
+import uk.co.nickthecoder.jguifier.util.ByteSink;
+import uk.co.nickthecoder.jguifier.util.CopySink;
+import uk.co.nickthecoder.jguifier.util.NullOutputStream;
+import uk.co.nickthecoder.jguifier.util.SimpleSink;
+import uk.co.nickthecoder.jguifier.util.StringBufferSink;
+
+/**
+ * Compares the throughput of the Sinks using small (1 KB) and large (64 KB) buffers, and the cost of capturing the
+ * output with a {@link StringBufferSink} and a {@link ByteSink}.
+ * Not part of the {@link TestSuite}, run it by hand :
+ * 
+ * <pre>
+ * java uk.co.nickthecoder.jguifier.test.SinkBenchmark [MEGABYTES]
+ * </pre>
+ */
+public class SinkBenchmark
+{
+	private static final int RUNS = 3;
+
+	public static void main( String[] argv )
+	{
+		long megabytes = argv.length > 0 ? Long.parseLong( argv[0] ) : 1024;
+
+		for ( int size : new int[] { 1024, BufferPool.DEFAULT_BUFFER_SIZE } ) {
+			BufferPool pool = new BufferPool( size, 4 );
+
+			SimpleSink simple = new SimpleSink();
+			simple.setBufferPool( pool );
+			time( "SimpleSink " + size, simple, megabytes );
+
+			CopySink copy = new CopySink( new NullOutputStream() );
+			copy.setBufferPool( pool );
+			time( "CopySink " + size, copy, megabytes );
+
+			// Decodes the text, but throws it away.
+			SimpleSink decoding = new SimpleSink() {
+				@Override
+				protected void sink( char[] buffer, int len )
+				{
+				}
+			};
+			decoding.setBufferPool( pool );
+			time( "Decoding " + size, decoding, megabytes );
+
+			StringBufferSink strings = new StringBufferSink();
+			strings.setBufferPool( pool );
+			time( "StringBufferSink " + size, strings, Math.min( megabytes, 64 ) );
+		}
+
+		time( "ByteSink", new ByteSink(), Math.min( megabytes, 64 ) );
+	}
+
+	private static void time( String label, ByteSink sink, long megabytes )
+	{
+		long best = Long.MAX_VALUE;
+		for ( int i = 0; i < RUNS; i ++ ) {
+			sink.setStream( new TextStream( megabytes * 1024 * 1024 ) );
+			long start = System.nanoTime();
+			sink.run();
+			best = Math.min( best, System.nanoTime() - start );
+		}
+		report( label, megabytes, best );
+	}
+
+	private static void time( String label, SimpleSink sink, long megabytes )
+	{
+		long best = Long.MAX_VALUE;
+		for ( int i = 0; i < RUNS; i ++ ) {
+			if ( sink instanceof StringBufferSink ) {
+				( (StringBufferSink) sink ).getStringBuffer().setLength( 0 );
+			}
+			sink.setStream( new TextStream( megabytes * 1024 * 1024 ) );
+			long start = System.nanoTime();
+			sink.run();
+			best = Math.min( best, System.nanoTime() - start );
+		}
+		report( label, megabytes, best );
+	}
+
+	private static void time( String label, CopySink sink, long megabytes )
+	{
+		long best = Long.MAX_VALUE;
+		for ( int i = 0; i < RUNS; i ++ ) {
+			sink.setStream( new TextStream( megabytes * 1024 * 1024 ) );
+			long start = System.nanoTime();
+			sink.run();
+			best = Math.min( best, System.nanoTime() - start );
+		}
+		report( label, megabytes, best );
+	}
+
+	private static void report( String label, long megabytes, long nanos )
+	{
+		System.out.println( label + " : " + megabytes + " MB in " + ( nanos / 1000000 ) + " ms (best of " + RUNS + ")" );
+	}
+
+	/**
+	 * Generates lines of ASCII text, without the cost of a real process or file.
+	 */
+	private static class TextStream extends InputStream
+	{
+		private static final byte[] LINE = "abcdefghijklmnopqrstuvwxyz abcdefghijklmnopqrstuvwxyz abcdefghijklmnopqrstuvwxyz\n".getBytes();
+
+		private long _remaining;
+
+		private int _position;
+
+		TextStream( long length )
+		{
+			_remaining = length;
+		}
+
+		@Override
+		public int read()
+		{
+			if ( _remaining <= 0 ) {
+				return -1;
+			}
+			_remaining --;
+			byte result = LINE[_position];
+			_position = ( _position + 1 ) % LINE.length;
+			return result;
+		}
+
+		@Override
+		public int read( byte[] buffer, int offset, int len )
+		{
+			if ( _remaining <= 0 ) {
+				return -1;
+			}
+			int amount = (int) Math.min( len, _remaining );
+			for ( int done = 0; done < amount; ) {
+				int chunk = Math.min( amount - done, LINE.length - _position );
+				System.arraycopy( LINE, _position, buffer, offset + done, chunk );
+				done += chunk;
+				_position = ( _position + chunk ) % LINE.length;
+			}
+			_remaining -= amount;
+			return amount;
+		}
+	}
+}
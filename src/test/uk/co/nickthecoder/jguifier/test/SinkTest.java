@@ -0,0 +1,246 @@
+package uk.co.nickthecoder.jguifier.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import uk.co.nickthecoder.jguifier.util.BufferPool;
+import uk.co.nickthecoder.jguifier.util.ByteSink;
+import uk.co.nickthecoder.jguifier.util.CopySink;
+import uk.co.nickthecoder.jguifier.util.Exec;
+import uk.co.nickthecoder.jguifier.util.LineSink;
+import uk.co.nickthecoder.jguifier.util.SimpleSink;
+import uk.co.nickthecoder.jguifier.util.StringBufferSink;
+import uk.co.nickthecoder.jguifier.util.TailSink;
+
+public class SinkTest {
+
+	private static String text( int count )
+	{
+		StringBuilder buffer = new StringBuilder();
+		for ( int i = 0; i < count; i ++ ) {
+			buffer.append( "line " ).append( i ).append( " caf\u00e9 \u20ac\n" );
+		}
+		return buffer.toString();
+	}
+
+	@Test
+	public void stringBufferSink()
+	{
+		byte[] bytes = text( 10000 ).getBytes( Charset.defaultCharset() );
+		String expected = new String( bytes, Charset.defaultCharset() );
+		StringBufferSink sink = new StringBufferSink();
+		sink.setStream( new ByteArrayInputStream( bytes ) );
+		sink.run();
+		assertEquals( expected, sink.toString() );
+	}
+
+	@Test
+	public void splitCharacters()
+	{
+		if ( ! "UTF-8".equals( Charset.defaultCharset().name() ) ) {
+			return;
+		}
+		// Tiny buffers, so that multi-byte characters are split across reads.
+		String expected = text( 100 );
+		for ( int size = 3; size < 8; size ++ ) {
+			StringBufferSink sink = new StringBufferSink();
+			sink.setBufferPool( new BufferPool( size, 1 ) );
+			sink.setStream( new ByteArrayInputStream( expected.getBytes( Charset.defaultCharset() ) ) );
+			sink.run();
+			assertEquals( expected, sink.toString() );
+		}
+	}
+
+	@Test
+	public void copySink()
+	{
+		byte[] expected = text( 10000 ).getBytes();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CopySink sink = new CopySink( out );
+		sink.setStream( new ByteArrayInputStream( expected ) );
+		sink.run();
+		assertEquals( new String( expected ), new String( out.toByteArray() ) );
+	}
+
+	@Test
+	public void pooled()
+	{
+		BufferPool pool = new BufferPool( 1024, 1 );
+		byte[] buffer = pool.acquireBytes();
+		pool.release( buffer );
+		assertSame( buffer, pool.acquireBytes() );
+		assertEquals( 1024, pool.acquireBytes().length );
+	}
+
+	@Test
+	public void pooledLimit()
+	{
+		BufferPool pool = new BufferPool( 1024, 1 );
+		// Buffers of the wrong size are ignored, and don't affect the limit.
+		for ( int i = 0; i < 10; i ++ ) {
+			pool.release( new byte[ 10 ] );
+		}
+		assertEquals( 0, pool.getPooledBytes() );
+		pool.release( new byte[ 1024 ] );
+		pool.release( new byte[ 1024 ] );
+		assertEquals( 1, pool.getPooledBytes() );
+	}
+
+	@SuppressWarnings( "deprecation" )
+	@Test
+	public void deprecatedBufferSize()
+	{
+		final int[] largest = new int[1];
+		SimpleSink sink = new SimpleSink() {
+			{
+				_bufferSize = 16;
+			}
+
+			@Override
+			protected void sink( char[] buffer, int len )
+			{
+				largest[0] = Math.max( largest[0], len );
+			}
+		};
+		sink.setStream( new ByteArrayInputStream( text( 100 ).getBytes() ) );
+		sink.run();
+		assertEquals( 16, largest[0] );
+		assertEquals( 16, sink.getBufferPool().getBufferSize() );
+	}
+
+	@Test
+	public void lineSink()
+	{
+		List<String> expected = Arrays.asList( "one", "", "three", "four", "five" );
+		for ( int size = 1; size < 8; size ++ ) {
+			List<String> lines = new ArrayList<String>();
+			LineSink sink = new LineSink( lines::add );
+			sink.setBufferPool( new BufferPool( size, 1 ) );
+			sink.setStream( new ByteArrayInputStream( "one\n\r\nthree\r\nfour\nfive".getBytes() ) );
+			sink.run();
+			assertEquals( expected, lines );
+		}
+	}
+
+	@Test
+	public void lineSinkQueue()
+		throws InterruptedException
+	{
+		// A queue much smaller than the output, so the command has to wait for us.
+		BlockingQueue<String> queue = new ArrayBlockingQueue<String>( 5 );
+		new Exec( "seq", "1000" ).stdout( new LineSink( queue ) ).runAsync();
+
+		int count = 0;
+		String line;
+		while ( ( line = queue.take() ) != LineSink.END_OF_OUTPUT ) {
+			count ++;
+			assertEquals( String.valueOf( count ), line );
+		}
+		assertEquals( 1000, count );
+	}
+
+	@Test
+	public void lineSinkQueueNotRun()
+		throws InterruptedException
+	{
+		// The command can't be started, so the sink is never run.
+		BlockingQueue<String> queue = new ArrayBlockingQueue<String>( 5 );
+		new Exec( "noSuchCommandForSinkTest" ).stdout( new LineSink( queue ) ).runAsync();
+		assertSame( LineSink.END_OF_OUTPUT, queue.poll( 10, TimeUnit.SECONDS ) );
+
+		// stderr is merged with stdout, so the stderr sink is never run.
+		BlockingQueue<String> errors = new ArrayBlockingQueue<String>( 5 );
+		new Exec( "bash", "-c", "echo error >&2" ).stderr( new LineSink( errors ) ).mergeStderr().run();
+		assertSame( LineSink.END_OF_OUTPUT, errors.poll( 10, TimeUnit.SECONDS ) );
+	}
+
+	private static String numbers( int count )
+	{
+		StringBuilder buffer = new StringBuilder();
+		for ( int i = 1; i <= count; i ++ ) {
+			buffer.append( i ).append( "\n" );
+		}
+		return buffer.toString();
+	}
+
+	private static TailSink tail( TailSink sink, String text, int bufferSize )
+	{
+		sink.setBufferPool( new BufferPool( bufferSize, 1 ) );
+		sink.setStream( new ByteArrayInputStream( text.getBytes() ) );
+		sink.run();
+		return sink;
+	}
+
+	@Test
+	public void tailSink()
+	{
+		String text = numbers( 100 );
+		for ( int size : new int[] { 1, 3, 7, 1024 } ) {
+			TailSink sink = tail( new TailSink( 10 ), text, size );
+			assertEquals( "98\n99\n100\n", sink.toString() );
+			assertTrue( sink.isTruncated() );
+			assertEquals( text.length(), sink.getTotal() );
+
+			sink = tail( new TailSink( 1000 ), text, size );
+			assertEquals( text, sink.toString() );
+			assertFalse( sink.isTruncated() );
+		}
+	}
+
+	@Test
+	public void tailSinkLines()
+	{
+		assertEquals( "99\n100\n", tail( new TailSink( 1000 ).maxLines( 2 ), numbers( 100 ), 7 ).toString() );
+		assertEquals( "b", tail( new TailSink( 1000 ).maxLines( 1 ), "a\nb", 7 ).toString() );
+	}
+
+	@Test
+	public void byteSink()
+	{
+		byte[] expected = text( 10000 ).getBytes( StandardCharsets.UTF_8 );
+		// A small initial capacity, so that it has to grow.
+		ByteSink sink = new ByteSink( 16 );
+		sink.setStream( new ByteArrayInputStream( expected ) );
+		sink.run();
+		assertEquals( expected.length, sink.size() );
+		assertArrayEquals( expected, sink.toByteArray() );
+		assertEquals( text( 10000 ), sink.toString( StandardCharsets.UTF_8 ) );
+	}
+
+	@Test
+	public void byteSinkLines()
+	{
+		ByteSink sink = new ByteSink();
+		sink.setStream( new ByteArrayInputStream( "one\n\r\nthree\r\nfour\nfive".getBytes() ) );
+		sink.run();
+		assertEquals( Arrays.asList( "one", "", "three", "four", "five" ), sink.toLines( StandardCharsets.UTF_8 ) );
+
+		new Exec( "seq", "1000" ).stdout( sink ).run();
+		assertEquals( 1000, sink.toLines( StandardCharsets.UTF_8 ).size() );
+		assertEquals( "1000", sink.toLines( StandardCharsets.UTF_8 ).get( 999 ) );
+
+		// The same as Exec.getStdoutAsArray
+		for ( String text : new String[] { "", "\n", "a\n\n", "a\r\n\r\n", "\na\n\nb\n\n\n", "a" } ) {
+			ByteSink each = new ByteSink();
+			each.setStream( new ByteArrayInputStream( text.getBytes() ) );
+			each.run();
+			assertEquals( Arrays.asList( text.split( "\\r?\\n" ) ), each.toLines( StandardCharsets.UTF_8 ) );
+		}
+	}
+}
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.junit.AfterClass;
@@ -12,6 +13,8 @@ import org.junit.Test;
 
 import uk.co.nickthecoder.jguifier.util.Exec;
 import uk.co.nickthecoder.jguifier.util.FileLister;
+import uk.co.nickthecoder.jguifier.util.FileWatchListener;
+import uk.co.nickthecoder.jguifier.util.FileWatcher;
 
 public class SlowFileListerTest {
 
@@ -114,6 +117,71 @@ public class SlowFileListerTest {
 	{
 	}
 	
+	@Test
+	public void limit()
+		throws IOException
+	{
+		List<File> newest = new FileLister().order( FileLister.LAST_MODIFIED_ORDER ).reverse().sortTogether().limit( 2 ).listFiles( baseDir );
+		assertSameFiles( newest, late, bar );
+
+		List<File> first = new FileLister().depth( 2 ).limit( 3 ).listFiles( baseDir );
+		assertSameFiles( first, bar, earliest, early );
+	}
+	
+	@Test
+	public void watch()
+		throws Exception
+	{
+		final List<File> added = new ArrayList<File>();
+		final List<File> removed = new ArrayList<File>();
+		
+		FileWatcher watcher = new FileLister().extension( "txt" ).watch( baseDir, new FileWatchListener() {
+			public void added( File file ) { added.add( file ); }
+			public void removed( File file ) { removed.add( file ); }
+			public void modified( File file ) { }
+		});
+		assertSameFiles( watcher.getFiles(), bar, foo );
+		
+		File baz = touch( "baz.txt" );
+		touch( "baz.png" );
+		new Exec( "rm", baz.getPath() ).run();
+		Thread.sleep( 1000 );
+		watcher.stop();
+
+		assertSameFiles( added, baz );
+		assertSameFiles( removed, baz );
+		assertSameFiles( watcher.getFiles(), bar, foo );
+	}
+	
+	@Test
+	public void watchMovedTree()
+		throws Exception
+	{
+		final List<File> added = new ArrayList<File>();
+		File moved = new File( "/tmp/SlowFileListerTest-moved" );
+		new Exec( "rm", "-r", moved.getPath() ).run();
+		mkdir( "tree" );
+		mkdir( "tree/inner" );
+		try {
+			FileWatcher watcher = new FileLister().depth( 3 ).extension( "txt" ).watch( baseDir, new FileWatchListener() {
+				public void added( File file ) { added.add( file ); }
+				public void removed( File file ) { }
+				public void modified( File file ) { }
+			});
+
+			new Exec( "mv", new File( baseDir, "tree" ).getPath(), moved.getPath() ).run();
+			Thread.sleep( 500 );
+			// The moved directories are no longer watched, so this isn't reported.
+			new Exec( "touch", new File( moved, "inner/lost.txt" ).getPath() ).run();
+			Thread.sleep( 1000 );
+			watcher.stop();
+
+			assertSameFiles( added );
+		} finally {
+			new Exec( "rm", "-r", moved.getPath() ).run();
+		}
+	}
+	
 	//MORE Sort by name,date and size globally rather than once per directory.
 
 	//MORE test reverse orders - including by name, which needs coding???
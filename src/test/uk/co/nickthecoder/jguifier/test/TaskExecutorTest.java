@@ -0,0 +1,108 @@
+package uk.co.nickthecoder.jguifier.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import uk.co.nickthecoder.jguifier.Task;
+import uk.co.nickthecoder.jguifier.TaskAdaptor;
+import uk.co.nickthecoder.jguifier.TaskExecutor;
+import uk.co.nickthecoder.jguifier.util.Stoppable;
+
+public class TaskExecutorTest {
+
+	static class CountingTask extends Task implements Stoppable
+	{
+		final CountDownLatch started = new CountDownLatch( 1 );
+		
+		volatile boolean stopped = false;
+
+		Thread thread;
+		
+		int count;
+
+		public void body()
+			throws Exception
+		{
+			thread = Thread.currentThread();
+			started.countDown();
+			for ( count = 0; count < 10; count ++ ) {
+				if ( stopped ) {
+					return;
+				}
+				fireProgress( count / 10.0, "Step " + count );
+				Thread.sleep( 20 );
+			}
+		}
+		
+		public void stop()
+		{
+			stopped = true;
+		}
+	}
+	
+	@Test
+	public void submit()
+		throws Exception
+	{
+		final List<String> messages = new ArrayList<String>();
+		CountingTask task = new CountingTask();
+		task.addTaskListener( new TaskAdaptor() {
+			@Override
+			public void progress( Task task, double fraction, String message )
+			{
+				messages.add( message );
+			}
+		});
+		
+		assertSame( task, new TaskExecutor( 1 ).submit( task ).get( 10, TimeUnit.SECONDS ) );
+		assertEquals( 10, task.count );
+		assertEquals( 10, messages.size() );
+		assertEquals( "Step 9", messages.get( 9 ) );
+		assertNotSame( Thread.currentThread(), task.thread );
+	}
+	
+	@Test
+	public void cancel()
+		throws Exception
+	{
+		final boolean[] aborted = new boolean[2];
+		TaskExecutor executor = new TaskExecutor( 1 );
+
+		CountingTask running = new CountingTask();
+		CountingTask queued = new CountingTask();
+		queued.addTaskListener( new TaskAdaptor() {
+			@Override
+			public void aborted( Task task )
+			{
+				aborted[1] = true;
+			}
+		});
+
+		CompletableFuture<Task> first = executor.submit( running );
+		CompletableFuture<Task> second = executor.submit( queued );
+		assertTrue( running.started.await( 10, TimeUnit.SECONDS ) );
+		
+		assertTrue( second.cancel( false ) );
+		assertTrue( first.cancel( false ) );
+		assertTrue( running.stopped );
+		assertTrue( aborted[1] );
+		
+		// The queued task never runs
+		Thread.sleep( 300 );
+		assertEquals( 1, queued.started.getCount() );
+		assertFalse( running.isRunning() );
+		assertTrue( running.count < 10 );
+	}
+	
+}
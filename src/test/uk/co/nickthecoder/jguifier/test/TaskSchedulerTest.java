@@ -0,0 +1,233 @@
+package uk.co.nickthecoder.jguifier.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+import uk.co.nickthecoder.jguifier.Task;
+import uk.co.nickthecoder.jguifier.TaskCommand;
+import uk.co.nickthecoder.jguifier.TaskException;
+import uk.co.nickthecoder.jguifier.TaskScheduler;
+import uk.co.nickthecoder.jguifier.parameter.StringParameter;
+import uk.co.nickthecoder.jguifier.util.Stoppable;
+
+public class TaskSchedulerTest {
+
+	static class SleepTask extends Task
+	{
+		final List<String> log;
+		
+		final long millis;
+		
+		boolean fail = false;
+		
+		/**
+		 * If set, the task waits (after counting down) until the other tasks sharing the latch have started too.
+		 */
+		CountDownLatch together;
+		
+		StringParameter input = new StringParameter.Builder( "input" ).optional().parameter();
+		
+		String output;
+		
+		SleepTask( String name, long millis, List<String> log )
+		{
+			this.millis = millis;
+			this.log = log;
+			setName( name );
+			addParameters( input );
+		}
+		
+		void together()
+			throws Exception
+		{
+			if ( together != null ) {
+				together.countDown();
+				if ( ! together.await( 10, TimeUnit.SECONDS ) ) {
+					throw new Exception( "Not run at the same time" );
+				}
+			}
+		}
+		
+		public void body()
+			throws Exception
+		{
+			together();
+			Thread.sleep( millis );
+			if ( fail ) {
+				throw new Exception( "Failed" );
+			}
+			output = getName() + ( input.getValue() == null ? "" : "(" + input.getValue() + ")" );
+			log.add( getName() );
+		}
+	}
+	
+	@Test
+	public void parallel()
+	{
+		List<String> log = Collections.synchronizedList( new ArrayList<String>() );
+		SleepTask a = new SleepTask( "a", 10, log );
+		SleepTask b = new SleepTask( "b", 10, log );
+		final SleepTask c = new SleepTask( "c", 10, log );
+		final SleepTask d = new SleepTask( "d", 10, log );
+		// a and b only succeed if they are both running at the same time.
+		a.together = b.together = new CountDownLatch( 2 );
+
+		TaskScheduler scheduler = new TaskScheduler().concurrency( 4 );
+		scheduler.after( c, a, b );
+		scheduler.link( c, new Supplier<String>() {
+			public String get()
+			{
+				return c.output;
+			}
+		}, d, d.input );
+		
+		assertEquals( 0, scheduler.run() );
+		assertEquals( "c", log.get( 2 ) );
+		assertEquals( "d(c)", d.output );
+	}
+	
+	@Test
+	public void failure()
+	{
+		List<String> log = Collections.synchronizedList( new ArrayList<String>() );
+		SleepTask a = new SleepTask( "a", 10, log );
+		SleepTask b = new SleepTask( "b", 100, log );
+		SleepTask c = new SleepTask( "c", 10, log );
+		a.fail = true;
+
+		TaskScheduler scheduler = new TaskScheduler();
+		scheduler.after( c, a ).add( b );
+		
+		assertEquals( TaskCommand.EXIT_TASK_FAILED, scheduler.run() );
+		assertEquals( TaskCommand.EXIT_TASK_FAILED, scheduler.getExitStatus( a ) );
+		assertEquals( 0, scheduler.getExitStatus( b ) );
+		assertEquals( TaskCommand.EXIT_CANCELLED, scheduler.getExitStatus( c ) );
+		assertEquals( "b", log.get( 0 ) );
+		assertEquals( 1, log.size() );
+	}
+	
+	static class StoppableTask extends SleepTask implements Stoppable
+	{
+		final CountDownLatch started = new CountDownLatch( 1 );
+
+		volatile boolean stopped = false;
+
+		StoppableTask( String name, List<String> log )
+		{
+			super( name, 0, log );
+		}
+
+		@Override
+		public void body()
+			throws Exception
+		{
+			started.countDown();
+			together();
+			while ( ! stopped ) {
+				Thread.sleep( 10 );
+			}
+			// Takes a while to stop, and then fails.
+			Thread.sleep( 200 );
+			log.add( getName() );
+			throw new Exception( "Stopped" );
+		}
+
+		@Override
+		public void stop()
+		{
+			stopped = true;
+		}
+	}
+
+	@Test
+	public void failFastWhileRunning()
+		throws Exception
+	{
+		List<String> log = Collections.synchronizedList( new ArrayList<String>() );
+		SleepTask slow = new SleepTask( "slow", 300, log );
+		StoppableTask stoppable = new StoppableTask( "stoppable", log );
+		SleepTask failing = new SleepTask( "failing", 10, log );
+		SleepTask dependent = new SleepTask( "dependent", 10, log );
+		failing.fail = true;
+		failing.together = slow.together = stoppable.together = new CountDownLatch( 3 );
+
+		TaskScheduler scheduler = new TaskScheduler().concurrency( 4 ).failFast();
+		scheduler.add( slow, stoppable, failing ).after( dependent, slow );
+
+		assertEquals( TaskCommand.EXIT_TASK_FAILED, scheduler.run() );
+		// run() waited for the running Tasks to really end.
+		assertFalse( slow.isRunning() );
+		assertFalse( stoppable.isRunning() );
+		assertTrue( log.contains( "slow" ) );
+		assertTrue( log.contains( "stoppable" ) );
+		assertFalse( log.contains( "dependent" ) );
+
+		// slow isn't Stoppable, so it ran to the end, but it was cancelled. stoppable failed after it was stopped.
+		assertEquals( TaskCommand.EXIT_CANCELLED, scheduler.getExitStatus( slow ) );
+		assertEquals( TaskCommand.EXIT_TASK_FAILED, scheduler.getExitStatus( stoppable ) );
+		assertEquals( TaskCommand.EXIT_CANCELLED, scheduler.getExitStatus( dependent ) );
+	}
+
+	@Test
+	public void stopWhileRunning()
+		throws Exception
+	{
+		List<String> log = Collections.synchronizedList( new ArrayList<String>() );
+		final StoppableTask stoppable = new StoppableTask( "stoppable", log );
+		final TaskScheduler scheduler = new TaskScheduler().concurrency( 2 );
+		scheduler.add( stoppable );
+
+		new Thread( new Runnable() {
+			@Override
+			public void run()
+			{
+				try {
+					stoppable.started.await( 10, TimeUnit.SECONDS );
+				} catch ( InterruptedException e ) {
+					// Do nothing
+				}
+				scheduler.stop();
+			}
+		} ).start();
+
+		assertEquals( TaskCommand.EXIT_TASK_FAILED, scheduler.run() );
+		assertFalse( stoppable.isRunning() );
+		assertEquals( 1, log.size() );
+	}
+
+	@Test
+	public void badParameters()
+	{
+		List<String> log = Collections.synchronizedList( new ArrayList<String>() );
+		SleepTask a = new SleepTask( "a", 10, log );
+		SleepTask b = new SleepTask( "b", 10, log );
+		b.input.setRequired( true );
+
+		TaskScheduler scheduler = new TaskScheduler();
+		scheduler.link( a, a.input, b, b.input );
+		
+		assertEquals( TaskCommand.EXIT_BAD_PARAMETERS, scheduler.run() );
+		assertEquals( 0, scheduler.getExitStatus( a ) );
+	}
+	
+	@Test( expected = TaskException.class )
+	public void cycle()
+	{
+		List<String> log = new ArrayList<String>();
+		SleepTask a = new SleepTask( "a", 10, log );
+		SleepTask b = new SleepTask( "b", 10, log );
+
+		new TaskScheduler().after( a, b ).after( b, a ).run();
+	}
+	
+}
@@ -4,7 +4,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith( Suite.class )
-@Suite.SuiteClasses( { ExecLinuxTest.class, FileListerTest.class, SlowFileListerTest.class } )
+@Suite.SuiteClasses( { ExecLinuxTest.class, FileListerTest.class, SinkTest.class, SlowFileListerTest.class, TaskExecutorTest.class, TaskSchedulerTest.class } )
 public class TestSuite
 {
   //nothing